@@ -27,5 +27,18 @@ import java.lang.annotation.*;
 public @interface ARTIFACT_INFO {
 	OUTPORT[] outports() default {};
 	String manual_file() default "";
+	
+	/**
+	 * Default priority class of the artifact operations
+	 */
+	OpPriority priority() default OpPriority.NORMAL;
+	
+	/**
+	 * If true, the queued ops are executed in batch under a single 
+	 * lock acquisition and their changes to the observable state 
+	 * are notified once per batch. The completion of the ops of a batch 
+	 * is notified after the changes, as when the ops are not batched.
+	 */
+	boolean batch_ops() default false;
 }
 
@@ -2,6 +2,7 @@ package cartago;
 
 import java.util.List;
 
+@ARTIFACT_INFO(priority=OpPriority.HIGH)
 public class AgentBodyArtifact extends Artifact {
 	
 	/* defines the radius within which the agent can perceive artifacts*/
@@ -17,11 +17,13 @@
  */
 package cartago;
 
+import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.locks.Condition;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * Base class for defining artifacts.
@@ -39,15 +41,40 @@ public abstract class Artifact {
 	protected OpId thisOpId;
 	private OpExecutionFrame opExecFrame;
 	private ArrayList<OpExecutionFrame> opsInExecution;
-
-	private HashMap<String, Method> guardMap;
-	private HashMap<String, OpDescriptor> operationMap;
+	/* suspended ops whose guard does not declare dependencies */
+	private ArrayList<SuspendedOp> suspendedOps;
+	/* suspended ops indexed by the dependencies of their guard */
+	private HashMap<String, ArrayList<SuspendedOp>> suspendedOpsByDep;
+	private int nSuspendedOps;
+	/* dependencies changed since guards were last signalled */
+	private HashSet<String> changedDeps;
+	/* fields guards depend on, with their last value */
+	private HashMap<String, FieldSnapshot> trackedFields;
+	private HashSet<String> notFieldDeps;
+
+	private Map<String, ISharedArtifactGuard> guardMap;
+	/* shared with the artifacts of the same class until changed */
+	private volatile Map<String, OpDescriptor> operationMap;
+	private boolean sharedOperationMap;
+	/* ops indexed by the code of their signature, rebuilt when the ops change */
+	private volatile OpTable operationTable;
+	/* priority class of the ops not specifying it */
+	private OpPriority defaultOpPriority;
+	/* ops executed in batch, see ARTIFACT_INFO */
+	private boolean batchOps;
+	private Thread batchOwner;
+	/* ops of the batch whose outcome is notified after their changes */
+	private ArrayList<OpExecutionFrame> batchCompleted;
 
 	private long obsPropId;
 	private ObsPropMap obsPropertyMap;
 	private HashMap<String, ArtifactOutPort> outPortsMap;
 
-	private ReentrantLock lock;
+	/* read-only ops share the read lock, any other access takes the write lock */
+	private ReentrantReadWriteLock rwLock;
+	private ReentrantReadWriteLock.WriteLock lock;
+	/* frame of the read-only op executed by a thread */
+	private ThreadLocal<OpExecutionFrame> readOnlyFrame;
 	private Condition guards;
 
 	private InterArtifactCallback opCallback;
@@ -71,19 +98,35 @@ public abstract class Artifact {
 		obsPropId = 0;
 		opIds = new java.util.concurrent.atomic.AtomicInteger(0);
 
-		lock = new ReentrantLock(true);
+		rwLock = new ReentrantReadWriteLock(true);
+		lock = rwLock.writeLock();
+		readOnlyFrame = new ThreadLocal<OpExecutionFrame>();
 		guards = lock.newCondition();
 
 		opsInExecution = new ArrayList<OpExecutionFrame>();
-		guardMap = new HashMap<String, Method>();
-		operationMap = new HashMap<String, OpDescriptor>();
+		suspendedOps = new ArrayList<SuspendedOp>();
+		suspendedOpsByDep = new HashMap<String, ArrayList<SuspendedOp>>();
+		nSuspendedOps = 0;
+		changedDeps = new HashSet<String>();
+		trackedFields = new HashMap<String, FieldSnapshot>();
+		notFieldDeps = new HashSet<String>();
+		guardMap = Collections.emptyMap();
+		operationMap = Collections.emptyMap();
+		sharedOperationMap = true;
+		operationTable = OpTable.EMPTY;
+		defaultOpPriority = OpPriority.NORMAL;
 		outPortsMap = new HashMap<String, ArtifactOutPort>();
 
 		obsPropertyMap = new ObsPropMap();
+		obsPropertyMap.setReadOnlyCheck(rwLock);
 		opCallback = new InterArtifactCallback(this.lock);
 
 		if (getClass().isAnnotationPresent(ARTIFACT_INFO.class)) {
 			ARTIFACT_INFO info = getClass().getAnnotation(ARTIFACT_INFO.class);
+			if (info.priority() != OpPriority.DEFAULT){
+				defaultOpPriority = info.priority();
+			}
+			batchOps = info.batch_ops();
 
 			for (OUTPORT port : info.outports()) {
 				outPortsMap.put(port.name(), new ArtifactOutPort(port.name()));
@@ -120,100 +163,42 @@ public abstract class Artifact {
 	 * Set up artifact operations.
 	 * 
 	 * Method called during artifact initialization to set up operations. By
-	 * default, reflection is used to link operations to annotated methods.
+	 * default, the artifact is bound to the operations of its class, computed
+	 * once for each class - using the dispatch tables generated at build time
+	 * or reflection - and shared by all its instances.
 	 * 
 	 * @throws CartagoException
 	 */
 	protected void setupOperations() throws CartagoException {
-		Class<?> c = getClass();
-		while (c != null) {
-			Method[] methods = c.getDeclaredMethods();
-			for (Method m : methods) {
-				// log("method "+m.getName());
-				// log("annotations "+m.getAnnotations().length);
-				if (m.isAnnotationPresent(OPERATION.class)) {
-					OPERATION op = m.getAnnotation(OPERATION.class);
-					String guard = op.guard();
-					ArtifactGuardMethod guardBody = null;
-					if (!guard.equals("")) {
-						Method guardMethod = getMethodInHierarchy(guard, m
-								.getParameterTypes());
-						if (guardMethod == null) {
-							throw new CartagoException("invalid guard: "
-									+ guard);
-						} else {
-							guardBody = new ArtifactGuardMethod(this,
-									guardMethod);
-						}
-					}
-					String name = null;
-					if (!m.isVarArgs()) {
-						name = Artifact.getOpKey(m.getName(), m
-								.getParameterTypes().length);
-					} else {
-						name = Artifact.getOpKey(m.getName(), -1);
-					}
-					OpDescriptor opdesc = new OpDescriptor(
-							name,
-							new ArtifactOpMethod(this, m), guardBody,
-							OpDescriptor.OpType.UI);
-					// log("registering "+name);
-					operationMap.put(name, opdesc);
-				} else if (m.isAnnotationPresent(LINK.class)) {
-					LINK op = m.getAnnotation(LINK.class);
-					String guard = op.guard();
-					ArtifactGuardMethod guardBody = null;
-					if (!guard.equals("")) {
-						Method guardMethod = getMethodInHierarchy(guard, m
-								.getParameterTypes());
-						if (guardMethod == null) {
-							throw new CartagoException("invalid guard: "
-									+ guard);
-						} else {
-							guardBody = new ArtifactGuardMethod(this,
-									guardMethod);
-						}
-					}
-					String name = Artifact.getOpKey(m.getName(), m
-							.getParameterTypes().length);
-					OpDescriptor opdesc = new OpDescriptor(
-							name,
-							new ArtifactOpMethod(this, m), guardBody,
-							OpDescriptor.OpType.LINK);
-					// log("registering "+name);
-					operationMap.put(name, opdesc);
-				} else if (m.isAnnotationPresent(INTERNAL_OPERATION.class)) {
-					INTERNAL_OPERATION op = m
-							.getAnnotation(INTERNAL_OPERATION.class);
-					String guard = op.guard();
-					ArtifactGuardMethod guardBody = null;
-					if (!guard.equals("")) {
-						Method guardMethod = getMethodInHierarchy(guard, m
-								.getParameterTypes());
-						if (guardMethod == null) {
-							throw new CartagoException("invalid guard: "
-									+ guard);
-						} else {
-							guardBody = new ArtifactGuardMethod(this,
-									guardMethod);
-						}
-					}
-					String name = Artifact.getOpKey(m.getName(), m
-							.getParameterTypes().length);
-					OpDescriptor opdesc = new OpDescriptor(
-							name,
-							new ArtifactOpMethod(this, m), guardBody,
-							OpDescriptor.OpType.INTERNAL);
-					// log("registering "+name);
-					operationMap.put(name, opdesc);
-				} else if (m.isAnnotationPresent(GUARD.class)) {
-					String name = Artifact.getOpKey(m.getName(), m
-							.getParameterTypes().length);
-					guardMap.put(name, m);
-				}
-			}
-			c = c.getSuperclass();
+		ArtifactClassInfo info = ArtifactClassInfo.forClass(getClass());
+		info.checkSetup();
+		operationMap = info.getOperations();
+		sharedOperationMap = true;
+		operationTable = info.getOperationTable();
+		guardMap = info.getGuards();
+	}
+
+	/*
+	 * Change the ops of the artifact: the map shared with
+	 * the artifacts of the same class is copied the first time
+	 */
+	private void putOp(OpDescriptor opdesc) {
+		if (sharedOperationMap) {
+			operationMap = new ConcurrentHashMap<String, OpDescriptor>(operationMap);
+			sharedOperationMap = false;
 		}
+		operationMap.put(opdesc.getKeyId(), opdesc);
+		operationTable = OpTable.build(operationMap.values());
+	}
+
+	private OpDescriptor removeOpDescriptor(String key) {
+		if (sharedOperationMap) {
+			operationMap = new ConcurrentHashMap<String, OpDescriptor>(operationMap);
+			sharedOperationMap = false;
+		}
+		OpDescriptor opdesc = operationMap.remove(key);
+		operationTable = OpTable.build(operationMap.values());
+		return opdesc;
 	}
 
 	/**
@@ -231,8 +216,9 @@ public abstract class Artifact {
 				name,
 				new ArtifactDynOp(this, opName, op), null,
 				OpDescriptor.OpType.UI);
+		opdesc.setPriority(defaultOpPriority);
 		// log("registering "+name);
-		operationMap.put(name, opdesc);
+		putOp(opdesc);
 		this.wsp.registerOpInMap(opdesc, this.id);
 	}
 
@@ -246,7 +232,7 @@ public abstract class Artifact {
 	 */
 	protected void removeOp(String opName) throws Exception {
 		String key =  Artifact.getOpKey(opName,-1);
-		OpDescriptor opdesc = operationMap.remove(key);
+		OpDescriptor opdesc = removeOpDescriptor(key);
 		if (opdesc != null) {
 			this.wsp.unregisterOpFromMap(opdesc, this.id);
 		}
@@ -277,6 +263,30 @@ public abstract class Artifact {
 		}
 	}
 
+	/**
+	 * Get the descriptor of the operation matching an op request,
+	 * used to schedule its frames.
+	 * 
+	 * @param op operation
+	 * @return the descriptor or null if the op is unknown
+	 */
+	OpDescriptor lookupOp(Op op){
+		OpTable table = operationTable;
+		OpDescriptor opDesc = table.get(op.getCode());
+		if (opDesc == null){
+			// try with var args
+			opDesc = table.get(op.getVarArgsCode());
+		}
+		return opDesc;
+	}
+
+	/**
+	 * Get the priority class of the ops not specifying it
+	 */
+	OpPriority getDefaultOpPriority(){
+		return defaultOpPriority;
+	}
+
 	/**
 	 * Get the key of an operation, given its name and n args.
 	 * 
@@ -318,18 +328,6 @@ public abstract class Artifact {
 		}
 	}
 
-	private Method getMethodInHierarchy(String name, Class<?>[] types) {
-		Class<?> cl = getClass();
-		do {
-			try {
-				return cl.getDeclaredMethod(name, types);
-			} catch (Exception ex) {
-				cl = cl.getSuperclass();
-			}
-		} while (cl != null);
-		return null;
-	}
-
 	private Method getMethodInHierarchy2(String name, Class<?>[] types) {
 		Class<?> cl = getClass();
 		do {
@@ -354,69 +352,63 @@ public abstract class Artifact {
 	 */
 	private void doOperation(OpExecutionFrame info) throws CartagoException {
 		ICartagoLoggerManager log = wsp.getLoggerManager();
+		if (!lock.isHeldByCurrentThread()){
+			OpDescriptor opDesc = lookupOp(info.getOperation());
+			if (opDesc != null && opDesc.isReadOnly()){
+				doReadOnlyOperation(info, opDesc);
+				return;
+			}
+		}
 		try {
 			lock.lock();
 			Op op = info.getOperation();
 			// log("inside doOperation "+op.getName()+" "+info.getAgentBodyId().getAgentName());
 			String name = op.getName();
 			// System.out.println("LOOKING FOR "+name+"_"+param.getValues().length);
-			OpDescriptor opDesc = operationMap.get(Artifact.getOpKey(name, op
-					.getParamValues().length));
-			boolean varargs = false;
+			OpDescriptor opDesc = lookupOp(op);
 			if (opDesc == null) {
-				// try with var args op
-				// log("doOp with varargs: "+op);
-				opDesc = operationMap.get(Artifact.getOpKey(name, -1));
-				if (opDesc == null) {
-					if (!info.isInternalOp()) {
-						String msg = "Unknown operation "+name+" on artifact "+this.id+" (type "+id.getArtifactType()+")";
-						Tuple desc = new Tuple("unknown_operation",this.id,name);
-						if (log.isLogging()){
-							log.opFailed(System.currentTimeMillis(), info.getOpId(), this.id, info.getOperation(), msg, desc);
-						}					
-						info.notifyOpFailed(msg,desc);
-					}
-					return;
-				}
-				if (!opDesc.isDynamic()) {
-					varargs = true;
+				if (!info.isInternalOp()) {
+					String msg = "Unknown operation "+name+" on artifact "+this.id+" (type "+id.getArtifactType()+")";
+					Tuple desc = new Tuple("unknown_operation",this.id,name);
+					if (log.isLogging()){
+						log.opFailed(System.currentTimeMillis(), info.getOpId(), this.id, info.getOperation(), msg, desc);
+					}					
+					info.notifyOpFailed(msg,desc);
 				}
+				return;
 			}
+			// var args op
+			boolean varargs = opDesc.hasVarArgsKey() && !opDesc.isDynamic();
 
 			IAlignmentTest test = info.getAlignmentTest();
-			IArtifactOp opBody = null;
-			IArtifactGuard guardBody = null;
+			ISharedArtifactOp opBody = null;
+			ISharedArtifactGuard guardBody = null;
 			opBody = opDesc.getOp();
 			guardBody = opDesc.getGuard();
-			Object[] params = null;
-			if (!varargs) {
-				params = op.getParamValues();
-			} else {
-				Object[] flat = op.getParamValues();
-				int len = opBody.getNumParameters();
-				params = new Object[len];
-				int var = flat.length - len + 1;
-				Object[] varlist = new Object[var];
-				for (int i = 0; i < len - 1; i++) {
-					params[i] = flat[i];
-				}
-				params[len - 1] = varlist;
-				for (int i = 0; i < var; i++) {
-					varlist[i] = flat[len - 1 + i];
-				}
-				// log("prepared params: "+params.length);
-			}
-			if (log.isLogging()){
+			Object[] params = getOpParams(op, opBody, varargs);
+			if (log.isLogging() && !info.wasSuspended()){
 				log.opStarted(System.currentTimeMillis(), info.getOpId(), this.id, info.getOperation());
 			}					
 			try {
 				// check guards
 				boolean guardOK = true;
 				if (guardBody != null) {
-					guardOK = guardBody.eval(params);
-					while (!guardOK) {
-						guards.await();
-						guardOK = guardBody.eval(params);
+					guardOK = guardBody.eval(this, params);
+					if (!guardOK) {
+						ArtifactMailbox mailbox = info.getOwnedMailbox();
+						if (mailbox != null) {
+							/* 
+							 * the op is suspended without keeping the controller:
+							 * it is given back to the mailbox as soon as the guard is true
+							 */
+							info.setSuspended();
+							suspendOp(new SuspendedOp(info, guardBody, params, mailbox, getGuardDependencies(guardBody, params)));
+							return;
+						}
+						while (!guardOK) {
+							guards.await();
+							guardOK = guardBody.eval(this, params);
+						}
 					}
 				}
 
@@ -443,8 +435,12 @@ public abstract class Artifact {
 				
 				try {
 					try {
-						opBody.exec(params);
-						commitObsStateChanges();
+						opBody.exec(this, params);
+						if (batchOwner == Thread.currentThread()){
+							deferObsStateChanges();
+						} else {
+							commitObsStateChanges();
+						}
 					} catch (InvocationTargetException ex) {
 						if (!(ex.getTargetException() instanceof OperationFailedException)) {
 							ex.printStackTrace();
@@ -459,7 +455,9 @@ public abstract class Artifact {
 							if (log.isLogging()){
 								log.opCompleted(System.currentTimeMillis(), info.getOpId(), this.id, info.getOperation());
 							}					
-							if (!info.completionNotified()){
+							if (batchOwner == Thread.currentThread()){
+								batchCompleted.add(info);
+							} else if (!info.completionNotified()){
 								info.notifyOpCompletion();
 							}
 						} else {
@@ -470,7 +468,11 @@ public abstract class Artifact {
 								log.opFailed(System.currentTimeMillis(), info.getOpId(), this.id, info.getOperation(), msg, desc);
 							}					
 							obsPropertyMap.rollbackChanges();
-							info.notifyOpFailed();
+							if (batchOwner == Thread.currentThread()){
+								batchCompleted.add(info);
+							} else {
+								info.notifyOpFailed();
+							}
 						}
 					}
 				} catch (IllegalArgumentException ex) {
@@ -487,15 +489,18 @@ public abstract class Artifact {
 					StringBuffer msg = new StringBuffer(
 							"Wrong operation arguments: operation "+op.getName()+" on artifact "+this.id+" (type: "+id.getArtifactType()+")\n"+
 							"- expected "+
-							((ArtifactOpMethod)opBody).getMethod().getParameterTypes().length+
-							" parameter(s) - types: ");
+							opBody.getNumParameters()+
+							" parameter(s)");
 					int n = 0;
-					for (Object p:((ArtifactOpMethod)opBody).getMethod().getParameterTypes()){
-						if (n != 0) {
-							msg.append(", ");
+					if (opBody instanceof SharedOpMethod) {
+						msg.append(" - types: ");
+						for (Object p:((SharedOpMethod)opBody).getMethod().getParameterTypes()){
+							if (n != 0) {
+								msg.append(", ");
+							}
+							msg.append(""+p);
+							n++;
 						}
-						msg.append(""+p);
-						n++;
 					}
 					msg.append("\n- actual parameter(s): ");
 					n = 0;
@@ -503,7 +508,7 @@ public abstract class Artifact {
 						if (n != 0) {
 							msg.append(", ");
 						}
-						msg.append(""+p+" type: "+p.getClass());
+						msg.append(""+p+" type: "+(p != null ? p.getClass() : null));
 						n++;
 					}
 
@@ -557,11 +562,322 @@ public abstract class Artifact {
 				info.notifyOpFailed();
 			}
 		} finally {
-			guards.signalAll();
+			signalGuards();
 			lock.unlock();
 		}
 	}	
 	
+	/*
+	 * Parameters to be passed to the op body, collecting the var args in an array
+	 */
+	private Object[] getOpParams(Op op, ISharedArtifactOp opBody, boolean varargs){
+		if (!varargs) {
+			return op.getParamValues();
+		} else {
+			Object[] flat = op.getParamValues();
+			int len = opBody.getNumParameters();
+			Object[] params = new Object[len];
+			int var = flat.length - len + 1;
+			Object[] varlist = new Object[var];
+			for (int i = 0; i < len - 1; i++) {
+				params[i] = flat[i];
+			}
+			params[len - 1] = varlist;
+			for (int i = 0; i < var; i++) {
+				varlist[i] = flat[len - 1 + i];
+			}
+			// log("prepared params: "+params.length);
+			return params;
+		}
+	}
+
+	/*
+	 * Execute a read-only op: it runs under the read lock, in parallel with 
+	 * the other read-only ops. Any attempt to change the obs state is rejected.
+	 */
+	private void doReadOnlyOperation(OpExecutionFrame info, OpDescriptor opDesc) {
+		ICartagoLoggerManager log = wsp.getLoggerManager();
+		ISharedArtifactOp opBody = opDesc.getOp();
+		Op op = info.getOperation();
+		boolean varargs = !opDesc.isDynamic() && opDesc.hasVarArgsKey();
+		rwLock.readLock().lock();
+		try {
+			if (log.isLogging()){
+				log.opStarted(System.currentTimeMillis(), info.getOpId(), this.id, op);
+			}
+			IAlignmentTest test = info.getAlignmentTest();
+			if (test != null && !test.match(this.obsPropertyMap)) {
+				String msg = "Test alignment failed";
+				Tuple desc = new Tuple("not_aligned");
+				if (log.isLogging()){
+					log.opFailed(System.currentTimeMillis(), info.getOpId(), this.id, op, msg, desc);
+				}					
+				info.notifyOpFailed(msg,desc);
+				return;
+			}
+			readOnlyFrame.set(info);
+			try {
+				opBody.exec(this, getOpParams(op, opBody, varargs));
+			} catch (InvocationTargetException ex) {
+				Throwable target = ex.getTargetException();
+				if (target instanceof ObsPropMap.ReadOnlyViolationException) {
+					info.setFailed("Read-only operation "+op.getName()+" changing the observable state", new Tuple("read_only_violation", this.id, op.getName()));
+				} else if (!(target instanceof OperationFailedException)) {
+					ex.printStackTrace();
+					info.setFailed("Generic Error in Op execution", new Tuple("operation_error", opBody.getName() + "/" + opBody.getNumParameters()));
+				}
+			} catch (Exception ex) {
+				info.setFailed("Generic Error in Op execution", new Tuple("operation_error", opBody.getName() + "/" + opBody.getNumParameters()));
+			} finally {
+				readOnlyFrame.remove();
+			}
+			if ((!info.isInternalOp())|(info.getActionId()==-2)) {
+				if (!info.isFailed()) {
+					if (log.isLogging()){
+						log.opCompleted(System.currentTimeMillis(), info.getOpId(), this.id, op);
+					}					
+					if (!info.completionNotified()){
+						info.notifyOpCompletion();
+					}
+				} else {
+					if (log.isLogging()){
+						log.opFailed(System.currentTimeMillis(), info.getOpId(), this.id, op, info.getFailureMsg(), info.getFailureReason());
+					}					
+					info.notifyOpFailed();
+				}
+			}
+		} finally {
+			rwLock.readLock().unlock();
+		}
+	}
+
+	/*
+	 * Frame of the op being executed by the calling thread
+	 */
+	private OpExecutionFrame currentFrame(){
+		OpExecutionFrame frame = readOnlyFrame.get();
+		return frame != null ? frame : opExecFrame;
+	}
+
+	/*
+	 * Wake up the ops waiting for a guard: the ones blocked in await 
+	 * and the suspended ones whose guard is now satisfied. 
+	 */
+	private void signalGuards(){
+		guards.signalAll();
+		if (!trackedFields.isEmpty()){
+			checkTrackedFields();
+		}
+		if (nSuspendedOps > 0){
+			if (!suspendedOps.isEmpty()){
+				resumeSatisfiedOps(suspendedOps, null);
+			}
+			if (!changedDeps.isEmpty()){
+				for (String dep: changedDeps.toArray(new String[changedDeps.size()])){
+					ArrayList<SuspendedOp> list = suspendedOpsByDep.get(dep);
+					if (list != null){
+						resumeSatisfiedOps(list, dep);
+						if (list.isEmpty()){
+							suspendedOpsByDep.remove(dep);
+						}
+					}
+				}
+			}
+		}
+		changedDeps.clear();
+	}
+	
+	/**
+	 * Notify that something some guards depend on has changed.
+	 * 
+	 * The suspended ops whose guard depends on the key 
+	 * are evaluated again when the current op completes.
+	 * 
+	 * @param key dependency key, as declared in GUARD dependsOn
+	 */
+	protected void dependencyChanged(String key){
+		if (nSuspendedOps > 0){
+			changedDeps.add(key);
+		}
+	}
+	
+	private void suspendOp(SuspendedOp sop){
+		if (sop.deps == null){
+			suspendedOps.add(sop);
+		} else {
+			for (String dep: sop.deps){
+				ArrayList<SuspendedOp> list = suspendedOpsByDep.get(dep);
+				if (list == null){
+					list = new ArrayList<SuspendedOp>();
+					suspendedOpsByDep.put(dep, list);
+				}
+				list.add(sop);
+			}
+		}
+		nSuspendedOps++;
+	}
+
+	/* evaluate the guards of the ops in the list, resuming the satisfied ones */
+	private void resumeSatisfiedOps(ArrayList<SuspendedOp> list, String dep){
+		int nleft = 0;
+		int size = list.size();
+		for (int i = 0; i < size; i++){
+			SuspendedOp sop = list.get(i);
+			if (sop.resumed){
+				continue;
+			}
+			boolean guardOK;
+			try {
+				guardOK = sop.guard.eval(this, sop.params);
+			} catch (Exception ex){
+				/* the failure is reported when the op is executed again */
+				guardOK = true;
+			}
+			if (!guardOK){
+				list.set(nleft++, sop);
+			} else {
+				sop.resumed = true;
+				nSuspendedOps--;
+				if (sop.deps != null && sop.deps.length > 1){
+					for (String d: sop.deps){
+						ArrayList<SuspendedOp> other = suspendedOpsByDep.get(d);
+						if (!d.equals(dep) && other != null){
+							other.remove(sop);
+							if (other.isEmpty()){
+								suspendedOpsByDep.remove(d);
+							}
+						}
+					}
+				}
+				if (!sop.mailbox.resume(sop.frame) && !sop.frame.isInternalOp()){
+					sop.frame.notifyOpFailed("Artifact Not Available", new Tuple("artifact_not_available", id.getName()));
+				}
+			}
+		}
+		list.subList(nleft, size).clear();
+	}
+
+	/*
+	 * Keys of the dependencies of a guard, null if not declared 
+	 */
+	private String[] getGuardDependencies(ISharedArtifactGuard guard, Object[] params){
+		String[] decl = guard.getDependencies();
+		if (decl == null){
+			return null;
+		}
+		String[] deps = new String[decl.length];
+		for (int i = 0; i < decl.length; i++){
+			String dep = decl[i];
+			if (dep.indexOf('$') >= 0){
+				for (int j = params.length - 1; j >= 0; j--){
+					dep = dep.replace("$"+j, String.valueOf(params[j]));
+				}
+			} else if (!trackedFields.containsKey(dep) && !notFieldDeps.contains(dep)){
+				trackField(dep);
+			}
+			deps[i] = dep;
+		}
+		return deps;
+	}
+
+	/* 
+	 * Track a field a guard depends on: the fields whose changes in place
+	 * could not be detected are rejected when the artifact class is set up
+	 */
+	private void trackField(String name){
+		Class<?> cl = getClass();
+		while (cl != null && cl != Artifact.class){
+			try {
+				Field f = cl.getDeclaredField(name);
+				f.setAccessible(true);
+				trackedFields.put(name, new FieldSnapshot(f, f.get(this)));
+				return;
+			} catch (NoSuchFieldException ex){
+				cl = cl.getSuperclass();
+			} catch (Exception ex){
+				break;
+			}
+		}
+		/* an obs property or a key */
+		notFieldDeps.add(name);
+	}
+
+	/* check which tracked fields changed since the last check */
+	private void checkTrackedFields(){
+		for (Map.Entry<String, FieldSnapshot> e: trackedFields.entrySet()){
+			FieldSnapshot snap = e.getValue();
+			try {
+				Object value = snap.field.get(this);
+				if (!Objects.equals(value, snap.value)){
+					snap.value = value;
+					if (nSuspendedOps > 0){
+						changedDeps.add(e.getKey());
+					}
+				}
+			} catch (Exception ex){
+				ex.printStackTrace();
+			}
+		}
+	}
+
+	/*
+	 * Fail the ops still suspended on a disposed artifact
+	 */
+	void failSuspendedOps(){
+		lock.lock();
+		try {
+			ArrayList<SuspendedOp> all = new ArrayList<SuspendedOp>(suspendedOps);
+			for (ArrayList<SuspendedOp> list: suspendedOpsByDep.values()){
+				all.addAll(list);
+			}
+			for (SuspendedOp sop: all){
+				if (!sop.resumed){
+					sop.resumed = true;
+					if (!sop.frame.isInternalOp()){
+						sop.frame.notifyOpFailed("Artifact Not Available", new Tuple("artifact_not_available", id.getName()));
+					}
+				}
+			}
+			suspendedOps.clear();
+			suspendedOpsByDep.clear();
+			nSuspendedOps = 0;
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	/*
+	 * Called before suspending the current op, so that the 
+	 * other ops queued for the artifact can be served meanwhile 
+	 */
+	private void releaseMailbox(){
+		if (opExecFrame != null){
+			opExecFrame.releaseMailbox();
+		}
+		if (batchOwner == Thread.currentThread()){
+			/* the rest of the op is no more part of the batch */
+			batchOwner = null;
+		}
+	}
+
+	/*
+	 * Release the lock while the current op waits, including 
+	 * the hold of the batch being served by the thread
+	 */
+	private int releaseLock(){
+		int holds = lock.getHoldCount();
+		for (int i = 0; i < holds; i++){
+			lock.unlock();
+		}
+		return holds;
+	}
+
+	private void reacquireLock(int holds){
+		for (int i = 0; i < holds; i++){
+			lock.lock();
+		}
+	}
+	
 	private void restoreOpExecContext(OpId id){
 		this.thisOpId = id;
 		boolean found = false;
@@ -576,40 +892,109 @@ public abstract class Artifact {
 			throw new IllegalArgumentException("INTERNAL ERROR: Op Exec Context cannot be restored.");
 		}
 	}
+	/*
+	 * Begin a batch of ops served by the calling thread: the lock is kept 
+	 * for the whole batch and the obs state changes of the ops that
+	 * completed are notified at the end, followed by the outcome of the ops, 
+	 * so that as without batches an agent perceives the changes made 
+	 * by its action before the action completion.
+	 */
+	boolean beginOpBatch(){
+		if (!batchOps){
+			return false;
+		}
+		lock.lock();
+		batchOwner = Thread.currentThread();
+		if (batchCompleted == null){
+			batchCompleted = new ArrayList<OpExecutionFrame>();
+		}
+		return true;
+	}
+
+	void endOpBatch(){
+		try {
+			if (batchOwner == Thread.currentThread()){
+				batchOwner = null;
+			}
+			if (obsPropertyMap.hasDeferredChanges()){
+				commitObsStateChanges();
+			}
+			for (OpExecutionFrame info: batchCompleted){
+				if (info.isFailed()){
+					info.notifyOpFailed();
+				} else if (!info.completionNotified()){
+					info.notifyOpCompletion();
+				}
+			}
+		} finally {
+			batchCompleted.clear();
+			lock.unlock();
+		}
+	}
+
+	/*
+	 * Make permanent the obs state changes of an op executed in batch, 
+	 * notifying them at the end of the batch (or at the next commit)
+	 */
+	private void deferObsStateChanges(){
+		addChangedDeps();
+		obsPropertyMap.deferChanges();
+	}
+
 	/*
 	 * Commit and make it observable the obs state 
 	 */
 	private void commitObsStateChanges(){
 		//log("committing obs state changed:");
-		ArtifactObsProperty[] changed = obsPropertyMap.getPropsChanged();
-		ArtifactObsProperty[] added = obsPropertyMap.getPropsAdded();
-		ArtifactObsProperty[] removed = obsPropertyMap.getPropsRemoved();	
+		obsPropertyMap.checkWritable();
+		if (obsPropertyMap.hasDeferredChanges()){
+			obsPropertyMap.deferChanges();
+		}
 		try {
-			if (changed != null || added != null || removed != null){
+			/* the snapshots of the props are made only if someone is going to consume them */
+			if (wsp.hasObsEventConsumers(id)){
+				ArtifactObsProperty[] changed = obsPropertyMap.getPropsChanged();
+				ArtifactObsProperty[] added = obsPropertyMap.getPropsAdded();
+				ArtifactObsProperty[] removed = obsPropertyMap.getPropsRemoved();	
 				wsp.notifyObsEvent(id, null, changed, added, removed);
-				guards.signalAll();
 			}
+			addChangedDeps();
+			signalGuards();
 		} catch (Exception ex){
 			ex.printStackTrace();
 		}
 		obsPropertyMap.commitChanges();
 	}
 	
+	/* obs properties are guard dependencies too */
+	private void addChangedDeps(){
+		if (nSuspendedOps > 0){
+			obsPropertyMap.collectChangedNames(changedDeps);
+		}
+	}
+	
 	/*
 	 * Commit and make it observable the obs state and a signal
 	 */
 	private void commitObsStateChangesAndSignal(AgentId target, Tuple signal){
 		//log("committing obs state changed:");
-		ArtifactObsProperty[] changed = obsPropertyMap.getPropsChanged();
-		ArtifactObsProperty[] added = obsPropertyMap.getPropsAdded();
-		ArtifactObsProperty[] removed = obsPropertyMap.getPropsRemoved();	
+		obsPropertyMap.checkWritable();
+		if (obsPropertyMap.hasDeferredChanges()){
+			obsPropertyMap.deferChanges();
+		}
 		try {
-			if (target == null){
-				wsp.notifyObsEvent(id, signal, changed, added, removed);
-			} else {
-				wsp.notifyObsEventToAgent(id, target, signal, changed, added, removed);
+			if (wsp.hasObsEventConsumers(id)){
+				ArtifactObsProperty[] changed = obsPropertyMap.getPropsChanged();
+				ArtifactObsProperty[] added = obsPropertyMap.getPropsAdded();
+				ArtifactObsProperty[] removed = obsPropertyMap.getPropsRemoved();	
+				if (target == null){
+					wsp.notifyObsEvent(id, signal, changed, added, removed);
+				} else {
+					wsp.notifyObsEventToAgent(id, target, signal, changed, added, removed);
+				}
 			}
-			guards.signalAll();
+			addChangedDeps();
+			signalGuards();
 		} catch (Exception ex){
 			ex.printStackTrace();
 		}
@@ -618,7 +1003,7 @@ public abstract class Artifact {
 	
 	// inherited
 
-	@OPERATION void observeProperty(String name, OpFeedbackParam<ArtifactObsProperty> prop){
+	@OPERATION(readOnly=true) void observeProperty(String name, OpFeedbackParam<ArtifactObsProperty> prop){
 		ObsProperty p = obsPropertyMap.getByName(name);
 		if (p != null) {
 			prop.set(p.getUserCopy());
@@ -637,7 +1022,7 @@ public abstract class Artifact {
 	}
 
 	public OpExecutionFrame getOpFrame(){
-		return opExecFrame;
+		return currentFrame();
 	}
 
 	
@@ -646,8 +1031,9 @@ public abstract class Artifact {
 	 * 
 	 */
 	protected AgentId getCurrentOpAgentId() {
-		if (opExecFrame != null) {
-			return this.opExecFrame.getAgentId();
+		OpExecutionFrame frame = currentFrame();
+		if (frame != null) {
+			return frame.getAgentId();
 		} else {
 			return null;
 		}
@@ -664,7 +1050,7 @@ public abstract class Artifact {
 	 * 
 	 */
 	protected ArtifactId getCurrentOpAgentBody() {
-		return wsp.getAgentBodyArtifact(opExecFrame.getAgentId());
+		return wsp.getAgentBodyArtifact(currentFrame().getAgentId());
 	}
 
 
@@ -702,7 +1088,7 @@ public abstract class Artifact {
 	 *            description of the failure
 	 */
 	protected void failed(String reason) {
-		this.opExecFrame.setFailed(reason, null);
+		currentFrame().setFailed(reason, null);
 		throw new OperationFailedException();
 	}
 
@@ -717,7 +1103,7 @@ public abstract class Artifact {
 	 *            parameters of a machine readable tuple describing the failure
 	 */
 	protected void failed(String reason, String tupleDesc, Object... params) {
-		this.opExecFrame.setFailed(reason, new Tuple(tupleDesc, params));
+		currentFrame().setFailed(reason, new Tuple(tupleDesc, params));
 		throw new OperationFailedException();
 	}
 
@@ -745,6 +1131,99 @@ public abstract class Artifact {
 			}
 	}
 
+	/**
+	 * Add a single-valued observable property of type int,
+	 * keeping the value unboxed.
+	 * 
+	 * @param name name of the property
+	 * @param value initial value
+	 */
+	protected ObsProperty defineIntObsProperty(String name, int value) {
+		return definePrimitiveObsProperty(name, ObsProperty.INT, value);
+	}
+
+	/**
+	 * Add a single-valued observable property of type long,
+	 * keeping the value unboxed.
+	 * 
+	 * @param name name of the property
+	 * @param value initial value
+	 */
+	protected ObsProperty defineLongObsProperty(String name, long value) {
+		return definePrimitiveObsProperty(name, ObsProperty.LONG, value);
+	}
+
+	/**
+	 * Add a single-valued observable property of type double,
+	 * keeping the value unboxed.
+	 * 
+	 * @param name name of the property
+	 * @param value initial value
+	 */
+	protected ObsProperty defineDoubleObsProperty(String name, double value) {
+		return definePrimitiveObsProperty(name, ObsProperty.DOUBLE, Double.doubleToRawLongBits(value));
+	}
+
+	/**
+	 * Add a single-valued observable property of type boolean,
+	 * keeping the value unboxed.
+	 * 
+	 * @param name name of the property
+	 * @param value initial value
+	 */
+	protected ObsProperty defineBooleanObsProperty(String name, boolean value) {
+		return definePrimitiveObsProperty(name, ObsProperty.BOOLEAN, value ? 1 : 0);
+	}
+
+	private ObsProperty definePrimitiveObsProperty(String name, byte kind, long value) {
+		String fullId="obs_id_"+this.id.getId()+"_"+name+"_" + obsPropId;
+		ObsProperty prop = new ObsProperty(obsPropertyMap,obsPropId, fullId, name, kind, value); 
+		obsPropertyMap.add(prop);
+		obsPropId++;
+		return prop;
+	}
+
+	/**
+	 * Increment by one the value of a numeric observable property
+	 * 
+	 * @param name name of the property
+	 */
+	protected void incObsProperty(String name) {
+		incObsProperty(name, 1);
+	}
+
+	/**
+	 * Add a delta to the value of a numeric observable property, 
+	 * keeping its type. The value is updated in place, without boxing, 
+	 * for the properties defined by defineIntObsProperty and defineLongObsProperty. 
+	 * 
+	 * @param name name of the property
+	 * @param delta value to add
+	 */
+	protected void incObsProperty(String name, long delta) {
+		ObsProperty prop = obsPropertyMap.getByName(name);
+		if (prop == null){
+			throw new IllegalArgumentException("invalid observable property: " + name);
+		}
+		prop.incValue(delta);
+	}
+
+	/**
+	 * Add a delta to the value of a numeric observable property, 
+	 * keeping its type. The value is updated in place, without boxing, 
+	 * for the properties defined by defineDoubleObsProperty. 
+	 * 
+	 * @param name name of the property
+	 * @param delta value to add
+	 */
+	protected void incObsProperty(String name, double delta) {
+		ObsProperty prop = obsPropertyMap.getByName(name);
+		if (prop == null){
+			throw new IllegalArgumentException("invalid observable property: " + name);
+		}
+		prop.incValue(delta);
+	}
+
 	/**
 	 * Remove an observable property
 	 * 
@@ -774,6 +1253,23 @@ public abstract class Artifact {
 			}
 	}
 
+	/**
+	 * Index the instances of an observable property on the values of some
+	 * arguments, so that the methods ...ByTemplate specifying all those
+	 * arguments find the instances without scanning them.
+	 *
+	 * For instance, indexObsProperty("cell", 0, 1) for cell(X,Y,Content).
+	 *
+	 * @param name name of the property
+	 * @param argIndexes positions of the indexed arguments
+	 */
+	protected void indexObsProperty(String name, int... argIndexes) {
+		if (argIndexes.length == 0){
+			throw new IllegalArgumentException("no arguments to index for observable property: " + name);
+		}
+		obsPropertyMap.addIndex(name, argIndexes);
+	}
+
 	protected ObsProperty getObsProperty(String name){
 		return obsPropertyMap.getByName(name);
 	}
@@ -816,12 +1312,12 @@ public abstract class Artifact {
 		try {
 			commitObsStateChanges();
 			String name = Artifact.getOpKey(guardName, params.length);
-			Method guard = guardMap.get(name);
-			guard.setAccessible(true);
-			boolean guardOK = (Boolean) guard.invoke(this, params);
+			ISharedArtifactGuard guard = guardMap.get(name);
+			boolean guardOK = guard.eval(this, params);
 			while (!guardOK) {
+				releaseMailbox();
 				guards.await();
-				guardOK = (Boolean) guard.invoke(this, params);
+				guardOK = guard.eval(this, params);
 			}
 			restoreOpExecContext(id);
 		} catch (Exception ex) {
@@ -836,7 +1332,8 @@ public abstract class Artifact {
 	 * time has passed.
 	 * 
 	 * By calling await the execution of current atomic operation step is
-	 * completed.
+	 * completed. The serving thread is kept meanwhile: for periodic activities
+	 * see execInternalOp(long, String, Object...).
 	 * 
 	 * @param dt
 	 *            - amount of time in milliseconds
@@ -845,9 +1342,10 @@ public abstract class Artifact {
 		OpId id = thisOpId;
 		try {
 			commitObsStateChanges();
-			lock.unlock();
+			releaseMailbox();
+			int holds = releaseLock();
 			Thread.sleep(dt);
-			lock.lock();
+			reacquireLock(holds);
 			this.restoreOpExecContext(id);
 		} catch (Exception ex) {
 			// ex.printStackTrace();
@@ -868,15 +1366,17 @@ public abstract class Artifact {
 	 */
 	protected void await(IBlockingCmd cmd) {
 		OpId id = thisOpId;
+		int holds = 0;
 		try {
 			commitObsStateChanges();
-			lock.unlock();
+			releaseMailbox();
+			holds = releaseLock();
 			cmd.exec();
 		} catch (Exception ex) {
 			// ex.printStackTrace();
 			throw new IllegalArgumentException("Exception in await " + cmd);
 		} finally {
-			lock.lock();
+			reacquireLock(holds);
 			restoreOpExecContext(id);
 		}
 	}
@@ -900,6 +1400,31 @@ public abstract class Artifact {
 		}
 	}
 
+	/**
+	 * 
+	 * Start the execution of an internal operation after some time.
+	 * 
+	 * No thread is used while waiting, so an internal operation 
+	 * rescheduling itself is the preferred way to realize periodic 
+	 * activities, instead of looping on await_time.
+	 * 
+	 * @param delay
+	 *            - delay in milliseconds
+	 * @param opName
+	 *            - the operation to be executed
+	 * @param params
+	 *            - the operation parameters
+	 */
+	protected void execInternalOp(long delay, String opName, Object... params) {
+		try {
+			wsp.doInternalOp(this.id, new Op(opName, params), delay);
+		} catch (Exception ex) {
+			ex.printStackTrace();
+			throw new IllegalArgumentException(
+					"Error in executing internal op.");
+		}
+	}
+
 	/**
 	 * Execute a linked operation
 	 * 
@@ -935,9 +1460,11 @@ public abstract class Artifact {
 					throw new OperationException("execLinkedOp failed " + ex);
 				}
 			}
+			int holds = 0;
 			try {
 				this.commitObsStateChanges();
-				lock.unlock();
+				releaseMailbox();
+				holds = releaseLock();
 				for (PendingOp pop: popList){
 					pop.waitForCompletion();
 					if (!pop.hasSucceeded()) {
@@ -945,7 +1472,7 @@ public abstract class Artifact {
 					}
 				}
 			} finally {
-				lock.lock();
+				reacquireLock(holds);
 				this.restoreOpExecContext(id);
 			}
 
@@ -991,12 +1518,14 @@ public abstract class Artifact {
 			Op op = new Op(opName, params);
 			wsp.execInterArtifactOp(opCallback, pop.getActionId(), userId,
 							this.getId(), aid, op, Integer.MAX_VALUE, null);
+			int holds = 0;
 			try {
 				this.commitObsStateChanges();
-				lock.unlock();
+				releaseMailbox();
+				holds = releaseLock();
 				pop.waitForCompletion();
 			} finally {
-				lock.lock();
+				reacquireLock(holds);
 				this.restoreOpExecContext(id);
 			}
 			if (!pop.hasSucceeded()) {
@@ -1103,8 +1632,9 @@ public abstract class Artifact {
 		}
 		OpDescriptor opdesc = new OpDescriptor(name, op, guard,
 				OpDescriptor.OpType.UI);
+		opdesc.setPriority(defaultOpPriority);
 		// log("registering "+name);
-		operationMap.put(name, opdesc);
+		putOp(opdesc);
 
 	}
 	
@@ -1191,7 +1721,7 @@ public abstract class Artifact {
 		} catch (Exception ex) {
 			ex.printStackTrace();
 		} finally {
-			guards.signalAll();
+			signalGuards();
 			lock.unlock();
 		}
 	}
@@ -1207,7 +1737,7 @@ public abstract class Artifact {
 		} catch (Exception ex) {
 			ex.printStackTrace();
 		} finally {
-			guards.signalAll();
+			signalGuards();
 			lock.unlock();
 		}
 	}
@@ -1303,6 +1833,41 @@ public abstract class Artifact {
 		return linkedArtifacts;
 	}
 	
+	/**
+	 * Op waiting for its guard to be satisfied, without keeping any thread
+	 */
+	static class SuspendedOp {
+		
+		final OpExecutionFrame frame;
+		final ISharedArtifactGuard guard;
+		final Object[] params;
+		final ArtifactMailbox mailbox;
+		final String[] deps;
+		boolean resumed;
+		
+		SuspendedOp(OpExecutionFrame frame, ISharedArtifactGuard guard, Object[] params, ArtifactMailbox mailbox, String[] deps){
+			this.frame = frame;
+			this.guard = guard;
+			this.params = params;
+			this.mailbox = mailbox;
+			this.deps = deps;
+		}
+	}
+	
+	/**
+	 * Last value of a field some guard depends on
+	 */
+	static class FieldSnapshot {
+		
+		final Field field;
+		Object value;
+		
+		FieldSnapshot(Field field, Object value){
+			this.field = field;
+			this.value = value;
+		}
+	}
+	
 	/**
 	 * Class representing the adapter used to interface the artifact to the
 	 * environment
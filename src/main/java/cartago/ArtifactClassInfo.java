@@ -0,0 +1,234 @@
+/**
+ * CArtAgO - DISI, University of Bologna
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package cartago;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Operations and guards of an artifact class.
+ * 
+ * The info is computed once for each artifact class - using the dispatch
+ * tables generated at build time or reflection - and shared by all its
+ * instances: the descriptors are immutable and their ops and guards are
+ * executed specifying the artifact.
+ * 
+ * @author aricci
+ *
+ */
+class ArtifactClassInfo {
+
+	private static final ClassValue<ArtifactClassInfo> infos = new ClassValue<ArtifactClassInfo>() {
+		protected ArtifactClassInfo computeValue(Class<?> type) {
+			return new ArtifactClassInfo(type);
+		}
+	};
+
+	private final Class<?> type;
+	private final OpPriority defaultOpPriority;
+	private final Map<String, OpDescriptor> operations;
+	private final OpTable operationTable;
+	private final Map<String, ISharedArtifactGuard> guards;
+	/* not null if the class cannot be set up */
+	private String setupError;
+
+	/**
+	 * Get the info of an artifact class, computing it the first time.
+	 * 
+	 * @param type artifact class
+	 */
+	static ArtifactClassInfo forClass(Class<?> type) {
+		return infos.get(type);
+	}
+
+	private ArtifactClassInfo(Class<?> type) {
+		this.type = type;
+		ARTIFACT_INFO info = type.getAnnotation(ARTIFACT_INFO.class);
+		defaultOpPriority = info != null && info.priority() != OpPriority.DEFAULT ? info.priority() : OpPriority.NORMAL;
+		HashMap<String, OpDescriptor> ops = new HashMap<String, OpDescriptor>();
+		HashMap<String, ISharedArtifactGuard> guardMap = new HashMap<String, ISharedArtifactGuard>();
+		operations = Collections.unmodifiableMap(ops);
+		guards = Collections.unmodifiableMap(guardMap);
+		try {
+			Class<?> c = type;
+			while (c != null) {
+				ArtifactDispatchTable table = c != Artifact.class ? ArtifactDispatchTable.forClass(c) : null;
+				if (table != null) {
+					table.defineOps(this, ops, guardMap);
+				} else {
+					setupOperations(c, ops, guardMap);
+				}
+				c = c.getSuperclass();
+			}
+			for (OpDescriptor op : ops.values()) {
+				if (op.isReadOnly() && op.getGuard() != null) {
+					throw new CartagoException("invalid read-only operation: " + op.getKeyId() + " has a guard");
+				}
+				checkDependencies(op.getGuard());
+			}
+			for (ISharedArtifactGuard guard : guardMap.values()) {
+				checkDependencies(guard);
+			}
+		} catch (CartagoException ex) {
+			setupError = ex.getMessage();
+		}
+		operationTable = OpTable.build(ops.values());
+	}
+
+	/*
+	 * Set up the operations declared by a class of the hierarchy, using reflection
+	 */
+	private void setupOperations(Class<?> c, HashMap<String, OpDescriptor> ops, HashMap<String, ISharedArtifactGuard> guardMap) throws CartagoException {
+		Method[] methods = c.getDeclaredMethods();
+		for (Method m : methods) {
+			if (m.isAnnotationPresent(OPERATION.class)) {
+				OPERATION op = m.getAnnotation(OPERATION.class);
+				SharedGuardMethod guardBody = getGuardMethod(op.guard(), m);
+				String name = null;
+				if (!m.isVarArgs()) {
+					name = Artifact.getOpKey(m.getName(), m.getParameterCount());
+				} else {
+					name = Artifact.getOpKey(m.getName(), -1);
+				}
+				defineOp(ops, name, new SharedOpMethod(m), guardBody,
+						OpDescriptor.OpType.UI, op.priority(), op.readOnly());
+			} else if (m.isAnnotationPresent(LINK.class)) {
+				LINK op = m.getAnnotation(LINK.class);
+				SharedGuardMethod guardBody = getGuardMethod(op.guard(), m);
+				String name = Artifact.getOpKey(m.getName(), m.getParameterCount());
+				defineOp(ops, name, new SharedOpMethod(m), guardBody,
+						OpDescriptor.OpType.LINK, OpPriority.DEFAULT, false);
+			} else if (m.isAnnotationPresent(INTERNAL_OPERATION.class)) {
+				INTERNAL_OPERATION op = m.getAnnotation(INTERNAL_OPERATION.class);
+				SharedGuardMethod guardBody = getGuardMethod(op.guard(), m);
+				String name = Artifact.getOpKey(m.getName(), m.getParameterCount());
+				defineOp(ops, name, new SharedOpMethod(m), guardBody,
+						OpDescriptor.OpType.INTERNAL, OpPriority.DEFAULT, false);
+			} else if (m.isAnnotationPresent(GUARD.class)) {
+				String name = Artifact.getOpKey(m.getName(), m.getParameterCount());
+				guardMap.put(name, new SharedGuardMethod(m));
+			}
+		}
+	}
+
+	private SharedGuardMethod getGuardMethod(String guard, Method op) throws CartagoException {
+		if (guard.equals("")) {
+			return null;
+		}
+		Method guardMethod = getMethodInHierarchy(guard, op.getParameterTypes());
+		if (guardMethod == null) {
+			throw new CartagoException("invalid guard: " + guard);
+		}
+		return new SharedGuardMethod(guardMethod);
+	}
+
+	/*
+	 * A guard can depend on a field only if its changes are detected by 
+	 * comparing its values, i.e. if the field cannot change in place
+	 */
+	private void checkDependencies(ISharedArtifactGuard guard) throws CartagoException {
+		String[] deps = guard != null ? guard.getDependencies() : null;
+		if (deps != null) {
+			for (String dep : deps) {
+				Field f = dep.indexOf('$') < 0 ? getFieldInHierarchy(dep) : null;
+				if (f != null && !isValueType(f.getType())) {
+					throw new CartagoException("invalid guard dependency: " + guard.getName() + " depends on field " + dep + 
+							" of type " + f.getType().getName() + ", whose changes cannot be tracked (use a key notified with dependencyChanged)");
+				}
+			}
+		}
+	}
+
+	/**
+	 * Check if the changes of a field of the type can be tracked comparing its values
+	 */
+	static boolean isValueType(Class<?> type) {
+		return type.isPrimitive() || type.isEnum() || type == String.class || 
+				type == Boolean.class || type == Character.class || 
+				(Number.class.isAssignableFrom(type) && type.getPackage() == Number.class.getPackage());
+	}
+
+	/* the fields of Artifact are not guard dependencies */
+	private Field getFieldInHierarchy(String name) {
+		Class<?> cl = type;
+		while (cl != null && cl != Artifact.class) {
+			try {
+				return cl.getDeclaredField(name);
+			} catch (NoSuchFieldException ex) {
+				cl = cl.getSuperclass();
+			}
+		}
+		return null;
+	}
+
+	private Method getMethodInHierarchy(String name, Class<?>[] types) {
+		Class<?> cl = type;
+		do {
+			try {
+				return cl.getDeclaredMethod(name, types);
+			} catch (Exception ex) {
+				cl = cl.getSuperclass();
+			}
+		} while (cl != null);
+		return null;
+	}
+
+	void defineOp(HashMap<String, OpDescriptor> ops, String name, ISharedArtifactOp op, ISharedArtifactGuard guard, OpDescriptor.OpType type, OpPriority priority, boolean readOnly) {
+		OpDescriptor opdesc = new OpDescriptor(name, op, guard, type);
+		opdesc.setPriority(priority != OpPriority.DEFAULT ? priority : defaultOpPriority);
+		opdesc.setReadOnly(readOnly);
+		ops.put(name, opdesc);
+	}
+
+	/**
+	 * @throws CartagoException if the operations of the class are not valid
+	 */
+	void checkSetup() throws CartagoException {
+		if (setupError != null) {
+			throw new CartagoException(setupError);
+		}
+	}
+
+	/**
+	 * @return the descriptors of the operations, not modifiable
+	 */
+	Map<String, OpDescriptor> getOperations() {
+		return operations;
+	}
+
+	/**
+	 * @return the descriptors of the operations indexed by code
+	 */
+	OpTable getOperationTable() {
+		return operationTable;
+	}
+
+	/**
+	 * @return the guards usable by await, not modifiable
+	 */
+	Map<String, ISharedArtifactGuard> getGuards() {
+		return guards;
+	}
+
+	OpPriority getDefaultOpPriority() {
+		return defaultOpPriority;
+	}
+}
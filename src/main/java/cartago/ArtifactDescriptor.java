@@ -18,6 +18,7 @@
 package cartago;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import cartago.events.*;
 
 /**
@@ -33,15 +34,24 @@ public class ArtifactDescriptor {
 	private AgentId creator;
 	private AbstractArtifactAdapter adapter;
 
-	private boolean observed;
-	private ArrayList<ArtifactObserver> observers;
+	private static final ArtifactObserver[] NO_OBSERVERS = new ArtifactObserver[0];
+
+	/* copy-on-write array used to iterate, replaced under the lock of the descriptor */
+	private volatile ArtifactObserver[] observers;
+	private ConcurrentHashMap<AgentId, ArtifactObserver> observersById;
+	/* rebuilt each time the observers array is replaced */
+	private volatile Subscriptions subscriptions;
+	
+	private ArtifactMailbox mailbox;
 	
 	public ArtifactDescriptor(Artifact artifact, AgentId creator, AbstractArtifactAdapter adapter){
 		this.artifact = artifact;
 		this.adapter = adapter;
 		this.creator = creator;
-		observers = new ArrayList<ArtifactObserver>();
-		observed = false;
+		observers = NO_OBSERVERS;
+		observersById = new ConcurrentHashMap<AgentId, ArtifactObserver>();
+		subscriptions = new Subscriptions(NO_OBSERVERS);
+		mailbox = new ArtifactMailbox(artifact.wsp, artifact, adapter);
 	}
 	
 	public Artifact getArtifact(){
@@ -60,131 +70,255 @@ public class ArtifactDescriptor {
 		return adapter;
 	}
 	
-	public synchronized  void removeAllObservers(){
-		observers.clear();
-	}
-
-	public synchronized  void addObserver(AgentId id, IEventFilter ev, ICartagoCallback ctx){
-		Iterator<ArtifactObserver> it = observers.iterator();
-		boolean found = false;
-		while (it.hasNext()){
-			ArtifactObserver obs = it.next();
-			if (obs.getAgentId().equals(id)){
-				found = true;
-				break;
-			}
+	ArtifactMailbox getMailbox(){
+		return mailbox;
+	}
+	
+	public synchronized void removeAllObservers(){
+		for (ArtifactObserver obs: observers){
+			artifact.wsp.getRoutingIndex().invalidateAgent(obs.getAgentId());
 		}
-		if (!found){
+		observers = NO_OBSERVERS;
+		observersById.clear();
+		subscriptions = new Subscriptions(NO_OBSERVERS);
+	}
+
+	public synchronized void addObserver(AgentId id, IEventFilter ev, ICartagoCallback ctx){
+		if (!observersById.containsKey(id)){
 			ArtifactObserver obs = new ArtifactObserver(id, ev, ctx);
-			observers.add(obs);
-			observed = true;
+			ArtifactObserver[] list = Arrays.copyOf(observers, observers.length + 1);
+			list[observers.length] = obs;
+			observersById.put(id, obs);
+			observers = list;
+			subscriptions = new Subscriptions(list);
+			/* focussed artifacts are preferred when routing ops */
+			artifact.wsp.getRoutingIndex().invalidateAgent(id);
 		}
 	}
 	
 	public synchronized boolean removeObserver(AgentId ctxId){
-			Iterator<ArtifactObserver> it = observers.iterator();
-			boolean found = false;
-			while (it.hasNext()){
-				ArtifactObserver obs = it.next();
-				if (obs.getAgentId().equals(ctxId)){
-					it.remove();
-					found = true;
-					break;
-				}
-			}
-			if (found){
-				if (observers.size()==0){
-					observed = false;
-					/*
-					if (artifact instanceof AgentBodyArtifact){
-						((AgentBodyArtifact)artifact).getAgentBody().setObserved(false);
-					}*/
+		ArtifactObserver obs = observersById.remove(ctxId);
+		if (obs != null){
+			ArtifactObserver[] list = new ArtifactObserver[observers.length - 1];
+			int i = 0;
+			for (ArtifactObserver o: observers){
+				if (o != obs){
+					list[i++] = o;
 				}
 			}
-			return found;
+			observers = list.length == 0 ? NO_OBSERVERS : list;
+			subscriptions = new Subscriptions(observers);
+			artifact.wsp.getRoutingIndex().invalidateAgent(ctxId);
+			return true;
+		} else {
+			return false;
+		}
 	}
 
-	public synchronized boolean isObserved(){
-			return observed;
+	public boolean isObserved(){
+		return observers.length > 0;
 	}
 
-	public synchronized boolean isObservedBy(AgentId userId){
-		Iterator<ArtifactObserver> it = observers.iterator();
-		if (observed){
-			while (it.hasNext()){
-				ArtifactObserver obs = it.next();
-				if (obs.getAgentId().equals(userId)){
-					return true;
-				}
-			}
-		}
-		return false;
+	public boolean isObservedBy(AgentId userId){
+		return observersById.containsKey(userId);
 	}
 	
 	/**
 	 * Return the list of agents that are observing this artifact
-	 * @return list o agents that are observing this artifact
+	 * @return list o agents that are observing this artifact (snapshot, not modifiable)
 	 */
-	public synchronized List<ArtifactObserver> getObservers() {
-		return observers;
+	public List<ArtifactObserver> getObservers() {
+		return Collections.unmodifiableList(Arrays.asList(observers));
 	}
 	
-	public synchronized void notifyObservers(CartagoEvent ev){
-		if (observed){
-			for (ArtifactObserver obs:observers){
-				try {
-					IEventFilter filter = obs.getFilter();
-					if (filter == null){
-						obs.getListener().notifyCartagoEvent(ev);
-					} else {
-						try {
-							if (ev instanceof ArtifactObsEvent){
-								boolean res = filter.select((ArtifactObsEvent)ev);
-								if (res){
-									obs.getListener().notifyCartagoEvent(ev);
+	/*
+	 * Deliver an event to an observer: inline, or enqueuing it 
+	 * in the buffer of the observer if the delivery is async
+	 */
+	private void deliver(ArtifactObserver obs, CartagoEvent ev){
+		Workspace wsp = artifact.wsp;
+		if (wsp.getEventDelivery() == Workspace.EventDelivery.ASYNC){
+			obs.getEventBuffer(wsp).offer(ev);
+		} else {
+			obs.getListener().notifyCartagoEvent(ev);
+		}
+	}
+
+	public void notifyObservers(CartagoEvent ev){
+		Subscriptions subs = subscriptions;
+		for (ArtifactObserver obs: subs.others){
+			dispatch(obs, ev);
+		}
+		if (ev instanceof ArtifactObsEvent){
+			if (subs.subscribers.length > 0){
+				notifySubscribers(subs, (ArtifactObsEvent) ev);
+			}
+			if (subs.filtered.length > 0){
+				/* all the composable filters evaluated at once */
+				boolean[] selected = new boolean[subs.filtered.length];
+				subs.program.select((ArtifactObsEvent) ev, selected);
+				for (int i = 0; i < selected.length; i++){
+					if (selected[i]){
+						deliverSafe(subs.filtered[i], ev);
+					}
+				}
+			}
+		}
+	}
+
+	/*
+	 * Deliver an event to the observers subscribed to its properties 
+	 * or signal, each one at most once, without evaluating their filters
+	 */
+	private void notifySubscribers(Subscriptions subs, ArtifactObsEvent ev){
+		int[] hit = null;
+		boolean[] selected = null;
+		Tuple sig = ev.getSignal();
+		if (sig != null){
+			hit = subs.bySignal.get(sig.getLabel());
+		}
+		for (ArtifactObsProperty[] props: new ArtifactObsProperty[][] { ev.getChangedProperties(), ev.getAddedProperties(), ev.getRemovedProperties() }){
+			if (props != null){
+				for (ArtifactObsProperty p: props){
+					int[] list = subs.byPropName.get(p.getName());
+					if (list != null && list != hit){
+						if (hit == null){
+							hit = list;
+						} else {
+							if (selected == null){
+								selected = new boolean[subs.subscribers.length];
+								for (int i: hit){
+									selected[i] = true;
 								}
 							}
-						} catch (Exception ex){
-							// error in filter eval.
-							ex.printStackTrace();
+							for (int i: list){
+								selected[i] = true;
+							}
 						}
 					}
-				} catch (Exception ex){
-					ex.printStackTrace();
 				}
 			}
 		}
+		if (selected != null){
+			for (int i = 0; i < selected.length; i++){
+				if (selected[i]){
+					deliverSafe(subs.subscribers[i], ev);
+				}
+			}
+		} else if (hit != null){
+			for (int i: hit){
+				deliverSafe(subs.subscribers[i], ev);
+			}
+		}
 	}
 		
-	public synchronized void notifyObserver(AgentId id, CartagoEvent ev){
-		if (observed){
-			for (ArtifactObserver obs:observers){
+	public void notifyObserver(AgentId id, CartagoEvent ev){
+		ArtifactObserver obs = observersById.get(id);
+		if (obs != null){
+			dispatch(obs, ev);
+		}
+	}
+
+	private void deliverSafe(ArtifactObserver obs, CartagoEvent ev){
+		try {
+			deliver(obs, ev);
+		} catch (Exception ex){
+			ex.printStackTrace();
+		}
+	}
+
+	private void dispatch(ArtifactObserver obs, CartagoEvent ev){
+		try {
+			IEventFilter filter = obs.getFilter();
+			if (filter == null){
+				deliver(obs, ev);
+			} else {
 				try {
-					if (obs.getAgentId().equals(id)){
-						IEventFilter filter = obs.getFilter();
-						if (filter == null){
-							obs.getListener().notifyCartagoEvent(ev);
-						} else {
-							try {
-								if (ev instanceof ArtifactObsEvent){
-									boolean res = filter.select((ArtifactObsEvent)ev);
-									if (res){
-										obs.getListener().notifyCartagoEvent(ev);
-									}
-								}
-							} catch (Exception ex){
-								// error in filter eval.
-								ex.printStackTrace();
-							}
+					if (ev instanceof ArtifactObsEvent){
+						boolean res = filter.select((ArtifactObsEvent)ev);
+						if (res){
+							deliver(obs, ev);
 						}
-						break;
 					}
 				} catch (Exception ex){
+					// error in filter eval.
 					ex.printStackTrace();
 				}
 			}
+		} catch (Exception ex){
+			ex.printStackTrace();
 		}
 	}
 
+	/*
+	 * Observers with a subscription filter, indexed by the property names
+	 * and the signal labels of interest, and observers with a composable 
+	 * filter, compiled in a single program; the other observers are kept 
+	 * apart and their filters (if any) are evaluated for each event.
+	 */
+	private static class Subscriptions {
+
+		ArtifactObserver[] others;
+		ArtifactObserver[] subscribers;
+		ArtifactObserver[] filtered;
+		EventFilter.Program program;
+		/* name or label -> indexes in subscribers */
+		HashMap<String, int[]> byPropName;
+		HashMap<String, int[]> bySignal;
+
+		Subscriptions(ArtifactObserver[] observers){
+			ArrayList<ArtifactObserver> oth = new ArrayList<ArtifactObserver>();
+			ArrayList<ArtifactObserver> subs = new ArrayList<ArtifactObserver>();
+			ArrayList<ArtifactObserver> filt = new ArrayList<ArtifactObserver>();
+			ArrayList<EventFilter> filters = new ArrayList<EventFilter>();
+			HashMap<String, List<Integer>> props = new HashMap<String, List<Integer>>();
+			HashMap<String, List<Integer>> signals = new HashMap<String, List<Integer>>();
+			for (ArtifactObserver obs: observers){
+				if (obs.getFilter() instanceof ISubscriptionFilter){
+					ISubscriptionFilter filter = (ISubscriptionFilter) obs.getFilter();
+					int index = subs.size();
+					subs.add(obs);
+					addKeys(props, filter.getPropertyNames(), index);
+					addKeys(signals, filter.getSignalLabels(), index);
+				} else if (obs.getFilter() instanceof EventFilter){
+					filt.add(obs);
+					filters.add((EventFilter) obs.getFilter());
+				} else {
+					oth.add(obs);
+				}
+			}
+			others = oth.toArray(new ArtifactObserver[oth.size()]);
+			subscribers = subs.toArray(new ArtifactObserver[subs.size()]);
+			filtered = filt.toArray(new ArtifactObserver[filt.size()]);
+			program = EventFilter.compile(filters);
+			byPropName = toIndex(props);
+			bySignal = toIndex(signals);
+		}
+
+		private static void addKeys(HashMap<String, List<Integer>> map, String[] keys, int index){
+			if (keys != null){
+				for (String key: keys){
+					List<Integer> list = map.computeIfAbsent(key, k -> new ArrayList<Integer>());
+					/* the same key may be listed twice by a filter */
+					if (list.isEmpty() || list.get(list.size() - 1) != index){
+						list.add(index);
+					}
+				}
+			}
+		}
+
+		private static HashMap<String, int[]> toIndex(HashMap<String, List<Integer>> map){
+			HashMap<String, int[]> index = new HashMap<String, int[]>();
+			for (Map.Entry<String, List<Integer>> e: map.entrySet()){
+				List<Integer> list = e.getValue();
+				int[] v = new int[list.size()];
+				for (int i = 0; i < v.length; i++){
+					v[i] = list.get(i);
+				}
+				index.put(e.getKey(), v);
+			}
+			return index;
+		}
+	}
 
 }
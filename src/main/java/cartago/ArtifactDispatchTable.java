@@ -0,0 +1,260 @@
+/**
+ * CArtAgO - DISI, University of Bologna
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package cartago;
+
+import java.util.HashMap;
+
+/**
+ * Base class of the dispatch tables generated at build time 
+ * for artifact classes (see cartago.processor.ArtifactDispatchProcessor).
+ * 
+ * A table links the operations and guards declared by an artifact class
+ * to its methods, calling them directly: it is used by the kernel in
+ * place of the reflective scan of the class, when available. Operations
+ * and guards are shared by all the artifacts of the class, so they are
+ * executed specifying the artifact.
+ * 
+ * The table of a class C is a class named C + TABLE_SUFFIX, in the same
+ * package of C.
+ * 
+ * @author aricci
+ *
+ */
+public abstract class ArtifactDispatchTable {
+
+	public static final String TABLE_SUFFIX = "_CartagoDispatch";
+
+	/* null for classes without a table */
+	private static final ClassValue<ArtifactDispatchTable> tables = new ClassValue<ArtifactDispatchTable>() {
+		protected ArtifactDispatchTable computeValue(Class<?> type) {
+			return loadTable(type);
+		}
+	};
+
+	/**
+	 * Get the table generated for an artifact class.
+	 * 
+	 * @param artifactClass
+	 * @return the table or null if not available
+	 */
+	static ArtifactDispatchTable forClass(Class<?> artifactClass) {
+		return tables.get(artifactClass);
+	}
+
+	private static ArtifactDispatchTable loadTable(Class<?> type) {
+		ClassLoader loader = type.getClassLoader();
+		if (loader == null || type.isArray() || type.isPrimitive()) {
+			return null;
+		}
+		try {
+			Class<?> c = Class.forName(type.getName() + TABLE_SUFFIX, true, loader);
+			if (ArtifactDispatchTable.class.isAssignableFrom(c)) {
+				ArtifactDispatchTable table = (ArtifactDispatchTable) c.getDeclaredConstructor().newInstance();
+				if (table.getArtifactClass() == type) {
+					return table;
+				}
+			}
+		} catch (ClassNotFoundException ex) {
+		} catch (Exception | LinkageError ex) {
+			/* e.g. a table generated by a different version: reflection is used */
+			ex.printStackTrace();
+		}
+		return null;
+	}
+
+	/**
+	 * @return the artifact class of the table
+	 */
+	protected abstract Class<?> getArtifactClass();
+
+	/**
+	 * Define the operations and guards declared by the artifact class,
+	 * using defineOp and defineGuard
+	 */
+	protected abstract void setup();
+
+	/* the class info being computed, during setup */
+	private ArtifactClassInfo info;
+	private HashMap<String, OpDescriptor> ops;
+	private HashMap<String, ISharedArtifactGuard> guards;
+
+	/*
+	 * Define the operations and guards of the table in the info of an artifact class
+	 * (of the class of the table or of a subclass)
+	 */
+	synchronized void defineOps(ArtifactClassInfo info, HashMap<String, OpDescriptor> ops, HashMap<String, ISharedArtifactGuard> guards) {
+		this.info = info;
+		this.ops = ops;
+		this.guards = guards;
+		try {
+			setup();
+		} finally {
+			this.info = null;
+			this.ops = null;
+			this.guards = null;
+		}
+	}
+
+	protected final void defineOp(OpDescriptor.OpType type, Operation op, Guard guard, OpPriority priority, boolean readOnly) {
+		String name = Artifact.getOpKey(op.getName(), op.isVarArgs() ? -1 : op.getNumParameters());
+		info.defineOp(ops, name, op, guard, type, priority, readOnly);
+	}
+
+	protected final void defineGuard(Guard guard) {
+		guards.put(Artifact.getOpKey(guard.getName(), guard.getNumParameters()), guard);
+	}
+
+	/**
+	 * Operation calling directly the method of the artifact.
+	 * 
+	 * As for methods called by reflection, an IllegalArgumentException is 
+	 * raised for wrong arguments and the exceptions raised by the method
+	 * are wrapped in an InvocationTargetException.
+	 */
+	public abstract static class Operation implements ISharedArtifactOp {
+
+		private final String name;
+		private final int nparams;
+		private final boolean varArgs;
+
+		protected Operation(String name, int nparams, boolean varArgs) {
+			this.name = name;
+			this.nparams = nparams;
+			this.varArgs = varArgs;
+		}
+
+		public abstract void exec(Artifact artifact, Object[] actualParams) throws Exception;
+
+		public int getNumParameters() {
+			return nparams;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public boolean isVarArgs() {
+			return varArgs;
+		}
+	}
+
+	/**
+	 * Guard calling directly the method of the artifact.
+	 */
+	public abstract static class Guard implements ISharedArtifactGuard {
+
+		private final String name;
+		private final int nparams;
+		private final String[] dependencies;
+
+		protected Guard(String name, int nparams, String[] dependencies) {
+			this.name = name;
+			this.nparams = nparams;
+			this.dependencies = dependencies;
+		}
+
+		public abstract boolean eval(Artifact artifact, Object[] actualParams) throws Exception;
+
+		public int getNumParameters() {
+			return nparams;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public String[] getDependencies() {
+			return dependencies;
+		}
+	}
+
+	/* argument conversions, following the rules of Method.invoke */
+
+	protected static void checkArgs(Object[] params, int n) {
+		if ((params == null ? 0 : params.length) != n) {
+			throw new IllegalArgumentException("wrong number of arguments");
+		}
+	}
+
+	protected static <T> T arg(Object value, Class<T> type) {
+		if (value != null && !type.isInstance(value)) {
+			throw new IllegalArgumentException("argument type mismatch");
+		}
+		return type.cast(value);
+	}
+
+	protected static boolean asBoolean(Object value) {
+		if (value instanceof Boolean) {
+			return (Boolean) value;
+		}
+		throw new IllegalArgumentException("argument type mismatch");
+	}
+
+	protected static byte asByte(Object value) {
+		if (value instanceof Byte) {
+			return (Byte) value;
+		}
+		throw new IllegalArgumentException("argument type mismatch");
+	}
+
+	protected static char asChar(Object value) {
+		if (value instanceof Character) {
+			return (Character) value;
+		}
+		throw new IllegalArgumentException("argument type mismatch");
+	}
+
+	protected static short asShort(Object value) {
+		if (value instanceof Short || value instanceof Byte) {
+			return ((Number) value).shortValue();
+		}
+		throw new IllegalArgumentException("argument type mismatch");
+	}
+
+	protected static int asInt(Object value) {
+		if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+			return ((Number) value).intValue();
+		} else if (value instanceof Character) {
+			return (Character) value;
+		}
+		throw new IllegalArgumentException("argument type mismatch");
+	}
+
+	protected static long asLong(Object value) {
+		if (value instanceof Long) {
+			return (Long) value;
+		}
+		return asInt(value);
+	}
+
+	protected static float asFloat(Object value) {
+		if (value instanceof Float) {
+			return (Float) value;
+		}
+		return asLong(value);
+	}
+
+	protected static double asDouble(Object value) {
+		if (value instanceof Double) {
+			return (Double) value;
+		} else if (value instanceof Float) {
+			return (Float) value;
+		}
+		return asLong(value);
+	}
+}
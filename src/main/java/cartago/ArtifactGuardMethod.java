@@ -40,7 +40,7 @@ public class ArtifactGuardMethod implements IArtifactGuard {
 	}
 
 	public int getNumParameters(){
-		return method.getParameterTypes().length;
+		return method.getParameterCount();
 	}
 
 	public String getName(){
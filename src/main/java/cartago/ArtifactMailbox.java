@@ -0,0 +1,342 @@
+/**
+ * CArtAgO - DISI, University of Bologna
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package cartago;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Mailbox keeping track of the operations to be executed on an artifact.
+ *
+ * At most one controller at a time owns the mailbox and serves its frames,
+ * so controllers never compete for the same artifact. The mailbox is
+ * handed back to the workspace as soon as the running operation suspends
+ * (guard, await_time, linked op), so that the following frames can be
+ * served by another controller.
+ * 
+ * New frames are kept in a queue for each priority class, served
+ * using weighted round robin. A run of read-only frames found at the
+ * head of a queue is served in parallel, by the owner together with
+ * helper tasks; the owner waits for the whole run to complete before
+ * serving the next frame, so the order of the frames is kept.
+ *
+ * @author aricci
+ *
+ */
+class ArtifactMailbox implements Runnable {
+
+	/* max number of frames served in a row before giving other artifacts a chance */
+	static final int MAX_FRAMES_PER_TURN = 16;
+	
+	/* max number of frames served in a single batch, for artifacts executing ops in batch */
+	static final int MAX_FRAMES_PER_BATCH = 256;
+
+	private Workspace wsp;
+	private Artifact artifact;
+	private IArtifactAdapter adapter;
+	/* new frames, one queue for each priority class */
+	private ConcurrentLinkedQueue<OpExecutionFrame>[] frames;
+	private ConcurrentLinkedQueue<OpExecutionFrame> resumed;
+	/* used by the owner of the mailbox only */
+	private PrioritySelector selector;
+	private AtomicBoolean scheduled;
+	private AtomicInteger nframes;
+	private volatile boolean closed;
+
+	@SuppressWarnings({"unchecked","rawtypes"})
+	ArtifactMailbox(Workspace wsp, Artifact artifact, IArtifactAdapter adapter){
+		this.wsp = wsp;
+		this.artifact = artifact;
+		this.adapter = adapter;
+		frames = new ConcurrentLinkedQueue[OpPriority.NCLASSES];
+		for (int i = 0; i < frames.length; i++){
+			frames[i] = new ConcurrentLinkedQueue<OpExecutionFrame>();
+		}
+		selector = new PrioritySelector();
+		resumed = new ConcurrentLinkedQueue<OpExecutionFrame>();
+		scheduled = new AtomicBoolean(false);
+		nframes = new AtomicInteger(0);
+		closed = false;
+	}
+
+	/**
+	 * Add a frame to be served, scheduling the mailbox if it was idle.
+	 *
+	 * @param frame
+	 * @return false if the mailbox has been closed
+	 */
+	boolean add(OpExecutionFrame frame){
+		if (closed){
+			return false;
+		}
+		OpDescriptor desc = artifact.lookupOp(frame.getOperation());
+		frame.setPriority(desc != null ? desc.getPriority() : artifact.getDefaultOpPriority());
+		frame.setReadOnly(desc != null && desc.isReadOnly());
+		nframes.incrementAndGet();
+		frames[frame.getPriority().ordinal()].add(frame);
+		trySchedule();
+		return true;
+	}
+
+	/**
+	 * Add a frame of a suspended op whose guard became true.
+	 * 
+	 * Resumed frames are served before the new ones.
+	 *
+	 * @param frame
+	 * @return false if the mailbox has been closed
+	 */
+	boolean resume(OpExecutionFrame frame){
+		if (closed){
+			return false;
+		}
+		nframes.incrementAndGet();
+		resumed.add(frame);
+		trySchedule();
+		return true;
+	}
+
+	public void run(){
+		serve();
+	}
+
+	/**
+	 * Serve the pending frames, called by the controller owning the mailbox.
+	 */
+	void serve(){
+		boolean batch = artifact.beginOpBatch();
+		try {
+			/* in batch mode, the frames already queued are drained, readers
+			   included, since the lock of the artifact is held by the owner */
+			if (!serveFrames(batch ? Math.max(1, Math.min(nframes.get(), MAX_FRAMES_PER_BATCH)) : MAX_FRAMES_PER_TURN, !batch)){
+				/* the op suspended: the mailbox is now owned by some other controller */
+				return;
+			}
+		} finally {
+			if (batch){
+				artifact.endOpBatch();
+			}
+		}
+		release();
+	}
+
+	/* false if the mailbox has been handed over while serving */
+	private boolean serveFrames(int max, boolean parallelReaders){
+		int n = 0;
+		while (n < max){
+			OpExecutionFrame frame = resumed.poll();
+			ConcurrentLinkedQueue<OpExecutionFrame> queue = null;
+			if (frame == null){
+				int index = selector.select(frames);
+				if (index >= 0){
+					queue = frames[index];
+					frame = queue.poll();
+				}
+			}
+			if (frame == null){
+				break;
+			}
+			nframes.decrementAndGet();
+			if (frame.isReadOnly() && parallelReaders && queue != null){
+				n += serveReaders(queue, frame, max - n);
+				continue;
+			}
+			frame.setOwnedMailbox(this);
+			frame.setServingThread(Thread.currentThread());
+			try {
+				adapter.doOperation(frame);
+			} catch (Exception ex){
+				ex.printStackTrace();
+			}
+			if (!frame.clearOwnedMailbox()){
+				return false;
+			}
+			n++;
+		}
+		return true;
+	}
+
+	/*
+	 * Serve the run of read-only frames starting with the one given,
+	 * returning when all of them have been served.
+	 */
+	private int serveReaders(ConcurrentLinkedQueue<OpExecutionFrame> queue, OpExecutionFrame first, int max){
+		ReadersRun run = new ReadersRun();
+		run.frames.add(first);
+		int n = 1;
+		OpExecutionFrame frame = queue.peek();
+		while (n < max && frame != null && frame.isReadOnly() && queue.remove(frame)){
+			nframes.decrementAndGet();
+			run.frames.add(frame);
+			n++;
+			frame = queue.peek();
+		}
+		/* helpers finding the run already served just do nothing */
+		for (int i = 1; i < n; i++){
+			wsp.scheduleTask(run, first.getPriority());
+		}
+		run.run();
+		run.awaitHelpers();
+		return n;
+	}
+
+	private void serveReadOnly(OpExecutionFrame frame){
+		frame.setServingThread(Thread.currentThread());
+		try {
+			adapter.doOperation(frame);
+		} catch (Exception ex){
+			ex.printStackTrace();
+		}
+	}
+
+	/**
+	 * Read-only frames shared by the owner of the mailbox and the helper tasks.
+	 */
+	private class ReadersRun implements Runnable {
+
+		private ConcurrentLinkedQueue<OpExecutionFrame> frames = new ConcurrentLinkedQueue<OpExecutionFrame>();
+		private int nactive;
+
+		public void run(){
+			synchronized (this){
+				nactive++;
+			}
+			try {
+				OpExecutionFrame frame = frames.poll();
+				while (frame != null){
+					serveReadOnly(frame);
+					frame = frames.poll();
+				}
+			} finally {
+				synchronized (this){
+					nactive--;
+					if (nactive == 0){
+						notifyAll();
+					}
+				}
+			}
+		}
+
+		/* called by the owner once the frames have all been taken */
+		synchronized void awaitHelpers(){
+			boolean interrupted = false;
+			while (nactive > 0){
+				try {
+					wait();
+				} catch (InterruptedException ex){
+					interrupted = true;
+				}
+			}
+			if (interrupted){
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * Give up the ownership of the mailbox, rescheduling it if there are still frames to serve.
+	 */
+	void release(){
+		scheduled.set(false);
+		if (hasFrames()){
+			trySchedule();
+		}
+	}
+
+	/**
+	 * Close the mailbox, failing the frames not served yet.
+	 */
+	void close(){
+		closed = true;
+		failAll(resumed);
+		for (ConcurrentLinkedQueue<OpExecutionFrame> queue: frames){
+			failAll(queue);
+		}
+	}
+
+	private void failAll(ConcurrentLinkedQueue<OpExecutionFrame> queue){
+		OpExecutionFrame frame = queue.poll();
+		while (frame != null){
+			nframes.decrementAndGet();
+			if (!frame.isInternalOp()){
+				frame.notifyOpFailed("Artifact Not Available", new Tuple("artifact_not_available", frame.getTargetArtifactId().getName()));
+			}
+			frame = queue.poll();
+		}
+	}
+
+	/**
+	 * Fail the agent operations not served yet, keeping internal ops.
+	 *
+	 * @param msg failure message
+	 * @param reason failure reason
+	 * @return the number of failed frames
+	 */
+	int failPending(String msg, String reason){
+		int nfailed = 0;
+		for (ConcurrentLinkedQueue<OpExecutionFrame> queue: frames){
+			java.util.Iterator<OpExecutionFrame> it = queue.iterator();
+			while (it.hasNext()){
+				OpExecutionFrame frame = it.next();
+				if (!frame.isInternalOp() && queue.remove(frame)){
+					nframes.decrementAndGet();
+					frame.notifyOpFailed(msg, new Tuple(reason, frame.getTargetArtifactId().getName()));
+					nfailed++;
+				}
+			}
+		}
+		return nfailed;
+	}
+
+	int getNumPendingFrames(){
+		return nframes.get();
+	}
+
+	/**
+	 * Priority of the mailbox when it is made ready, i.e. the one of its most urgent frame.
+	 */
+	OpPriority getReadyPriority(){
+		OpExecutionFrame frame = resumed.peek();
+		OpPriority top = frame != null ? frame.getPriority() : OpPriority.LOW;
+		for (int i = 0; i < top.ordinal(); i++){
+			if (!frames[i].isEmpty()){
+				return OpPriority.forClass(i);
+			}
+		}
+		return top;
+	}
+
+	boolean hasFrames(){
+		if (!resumed.isEmpty()){
+			return true;
+		}
+		for (ConcurrentLinkedQueue<OpExecutionFrame> queue: frames){
+			if (!queue.isEmpty()){
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private void trySchedule(){
+		if (scheduled.compareAndSet(false, true)){
+			wsp.scheduleMailbox(this);
+		}
+	}
+}
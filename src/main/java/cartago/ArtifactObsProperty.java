@@ -24,16 +24,23 @@ import java.util.List;
  * Class representing an artifact observable property
  * to be used on the agent side, retrieved by the bridge.
  * 
+ * The instances notified by the artifacts are snapshots 
+ * shared by all the observers: they must not be modified.
+ * 
  * @author aricci
  *
  */
 public class ArtifactObsProperty implements java.io.Serializable {
 
+	/* the one computed for the class before the snapshots were versioned */
+	private static final long serialVersionUID = 3464010136917784751L;
+
 	private String name;
 	private Object[] values;
 	private long id;
 	private String fullId;
 	private List<Object> annots = null;
+	private transient long version;
 	
 	public ArtifactObsProperty(String fullId, long id, String name, Object... values){
     	this.name = name;
@@ -42,6 +49,13 @@ public class ArtifactObsProperty implements java.io.Serializable {
     	this.fullId = fullId;
 	}
 	
+	/* snapshot of a property at the specified version */
+	ArtifactObsProperty(long version, String fullId, long id, String name, List<Object> annots, Object[] values){
+		this(fullId, id, name, values);
+		this.annots = annots;
+		this.version = version;
+	}
+	
 	public ArtifactObsProperty setAnnots(List<Object> annots) {
 		this.annots = annots;
 		return this;
@@ -51,6 +65,11 @@ public class ArtifactObsProperty implements java.io.Serializable {
 		return annots;		
 	}
 	
+	/* version of the property the snapshot refers to */
+	long getVersion(){
+		return version;
+	}
+	
 	/**
 	 * Get the id of the property 
 	 */
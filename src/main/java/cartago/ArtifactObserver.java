@@ -30,6 +30,8 @@ public class ArtifactObserver {
     private ICartagoCallback listener;
     private AgentId id;
     private IEventFilter filter;
+    /* created at the first event delivered asynchronously */
+    private ObserverEventBuffer buffer;
     
 	ArtifactObserver(AgentId id, IEventFilter filter, ICartagoCallback listener){
 		this.listener = listener;
@@ -48,4 +50,11 @@ public class ArtifactObserver {
 	public AgentId getAgentId(){
 		return id;
 	}
+
+	synchronized ObserverEventBuffer getEventBuffer(Workspace wsp){
+		if (buffer == null){
+			buffer = new ObserverEventBuffer(wsp, listener, wsp.getObserverBufferSize(), wsp.getObserverOverflowPolicy());
+		}
+		return buffer;
+	}
 }
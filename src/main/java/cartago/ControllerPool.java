@@ -0,0 +1,362 @@
+/**
+ * CArtAgO - DISI, University of Bologna
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package cartago;
+
+import java.util.ArrayDeque;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import cartago.Workspace.RejectionPolicy;
+
+/**
+ * Elastic pool of controllers serving the artifact mailboxes of a workspace.
+ *
+ * The pool keeps at least min controllers alive and grows up to max
+ * controllers when mailboxes are ready and no controller is idle (e.g.
+ * because controllers are blocked on ops waiting for a guard). Controllers
+ * beyond min are retired after being idle for the keep-alive time.
+ * When the pool is saturated the rejection policy is applied.
+ * Ready mailboxes are queued according to the priority of their
+ * most urgent frame and served using weighted round robin.
+ *
+ * @author aricci
+ *
+ */
+class ControllerPool {
+
+	private Workspace wsp;
+	private ReadyQueue readyMailboxes;
+	private Set<Controller> controllers;
+
+	private volatile int minSize;
+	private volatile int maxSize;
+	private volatile long keepAliveTime;
+	private volatile RejectionPolicy policy;
+
+	private AtomicInteger size;
+	private AtomicInteger nIdle;
+	private AtomicInteger nBusy;
+	private AtomicInteger peakSize;
+	private AtomicLong nRejected;
+	private AtomicInteger ids;
+	private volatile boolean stopped;
+
+	ControllerPool(Workspace wsp, int minSize, int maxSize, long keepAliveTime){
+		this.wsp = wsp;
+		this.minSize = minSize;
+		this.maxSize = Math.max(minSize, maxSize);
+		this.keepAliveTime = keepAliveTime;
+		policy = RejectionPolicy.QUEUE;
+		readyMailboxes = new ReadyQueue();
+		controllers = ConcurrentHashMap.newKeySet();
+		size = new AtomicInteger(0);
+		nIdle = new AtomicInteger(0);
+		nBusy = new AtomicInteger(0);
+		peakSize = new AtomicInteger(0);
+		nRejected = new AtomicLong(0);
+		ids = new AtomicInteger(0);
+		stopped = false;
+	}
+
+	/**
+	 * Start the core controllers.
+	 */
+	void start(){
+		for (int i = 0; i < minSize; i++){
+			tryStartController(Integer.MAX_VALUE);
+		}
+	}
+
+	/**
+	 * Make a mailbox available to the controllers.
+	 *
+	 * @param mailbox
+	 */
+	void execute(ArtifactMailbox mailbox){
+		if (nIdle.get() == 0 && !tryStartController(maxSize)){
+			if (policy == RejectionPolicy.FAIL && !stopped){
+				if (mailbox.failPending("Controllers saturated", "controllers_saturated") > 0){
+					nRejected.incrementAndGet();
+				}
+				if (!mailbox.hasFrames()){
+					/* no frames left to serve */
+					mailbox.release();
+					return;
+				}
+			}
+		}
+		readyMailboxes.add(mailbox, mailbox.getReadyPriority());
+	}
+
+	/**
+	 * Execute a task not bound to a mailbox (e.g. a read-only op).
+	 *
+	 * @param task
+	 * @param priority
+	 */
+	void execute(Runnable task, OpPriority priority){
+		if (nIdle.get() == 0){
+			tryStartController(maxSize);
+		}
+		readyMailboxes.add(task, priority);
+	}
+
+	/**
+	 * Start n further controllers, as far as the max size allows.
+	 *
+	 * @param n
+	 */
+	void addControllers(int n){
+		for (int i = 0; i < n; i++){
+			if (!tryStartController(maxSize)){
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Stop the controllers. Mailboxes still in the queue are served before the controllers terminate.
+	 */
+	void shutdown(){
+		stopped = true;
+		for (Controller c: controllers){
+			c.interrupt();
+		}
+	}
+
+	void setBounds(int min, int max){
+		if (min < 0 || max < 1 || max < min){
+			throw new IllegalArgumentException("Invalid controller pool bounds: "+min+","+max);
+		}
+		minSize = min;
+		maxSize = max;
+		while (size.get() < min && tryStartController(min)){}
+	}
+
+	void setKeepAliveTime(long ms){
+		keepAliveTime = ms;
+	}
+
+	void setRejectionPolicy(RejectionPolicy policy){
+		this.policy = policy;
+	}
+
+	int getMinSize(){
+		return minSize;
+	}
+
+	int getMaxSize(){
+		return maxSize;
+	}
+
+	int getSize(){
+		return size.get();
+	}
+
+	int getNumBusy(){
+		return nBusy.get();
+	}
+
+	int getPeakSize(){
+		return peakSize.get();
+	}
+
+	long getNumRejected(){
+		return nRejected.get();
+	}
+
+	int getQueueDepth(){
+		return readyMailboxes.size();
+	}
+
+	private boolean tryStartController(int bound){
+		while (true){
+			int n = size.get();
+			if (n >= bound || stopped){
+				return false;
+			}
+			if (size.compareAndSet(n, n + 1)){
+				peakSize.accumulateAndGet(n + 1, Math::max);
+				Controller c = new Controller(this, ids.incrementAndGet());
+				controllers.add(c);
+				c.start();
+				return true;
+			}
+		}
+	}
+
+	/* retire the calling controller, if the pool has more than min controllers */
+	private boolean tryRetire(){
+		while (true){
+			int n = size.get();
+			if (n <= minSize){
+				return false;
+			}
+			if (size.compareAndSet(n, n - 1)){
+				return true;
+			}
+		}
+	}
+
+	private void serve(Runnable task){
+		nBusy.incrementAndGet();
+		if (nIdle.get() == 0 && !readyMailboxes.isEmpty()){
+			/* the other controllers are busy: make sure the queue keeps being served */
+			tryStartController(maxSize);
+		}
+		try {
+			task.run();
+		} catch (Exception ex){
+			ex.printStackTrace();
+			wsp.log("[ENV-CONTROLLER] uncaught operation exception: "+ex);
+		} finally {
+			nBusy.decrementAndGet();
+		}
+	}
+
+	/**
+	 * Queue of the ready mailboxes (and tasks), one for each priority class
+	 */
+	static class ReadyQueue {
+
+		private ArrayDeque<Runnable>[] queues;
+		private PrioritySelector selector;
+		private ReentrantLock lock;
+		private Condition notEmpty;
+		/* written under the lock */
+		private volatile int size;
+
+		@SuppressWarnings({"unchecked","rawtypes"})
+		ReadyQueue(){
+			queues = new ArrayDeque[OpPriority.NCLASSES];
+			for (int i = 0; i < queues.length; i++){
+				queues[i] = new ArrayDeque<Runnable>();
+			}
+			selector = new PrioritySelector();
+			lock = new ReentrantLock();
+			notEmpty = lock.newCondition();
+			size = 0;
+		}
+
+		void add(Runnable task, OpPriority priority){
+			lock.lock();
+			try {
+				queues[priority.ordinal()].add(task);
+				size++;
+				notEmpty.signal();
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		Runnable poll(){
+			lock.lock();
+			try {
+				return size > 0 ? next() : null;
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		Runnable poll(long timeout, TimeUnit unit) throws InterruptedException {
+			long nanos = unit.toNanos(timeout);
+			lock.lockInterruptibly();
+			try {
+				while (size == 0){
+					if (nanos <= 0){
+						return null;
+					}
+					nanos = notEmpty.awaitNanos(nanos);
+				}
+				return next();
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		boolean isEmpty(){
+			return size() == 0;
+		}
+
+		int size(){
+			return size;
+		}
+
+		private Runnable next(){
+			size--;
+			return queues[selector.select(queues)].poll();
+		}
+	}
+
+	/**
+	 * Controller thread serving the mailboxes
+	 *
+	 * @author aricci
+	 *
+	 */
+	static class Controller extends Thread {
+
+		private ControllerPool pool;
+
+		Controller(ControllerPool pool, int id){
+			super("cartago-controller-" + id);
+			this.pool = pool;
+		}
+
+		public void run(){
+			boolean retired = false;
+			while (!pool.stopped){
+				Runnable item = null;
+				pool.nIdle.incrementAndGet();
+				try {
+					item = pool.readyMailboxes.poll(pool.keepAliveTime, TimeUnit.MILLISECONDS);
+				} catch (InterruptedException ex){
+					// stop requested
+				} finally {
+					pool.nIdle.decrementAndGet();
+				}
+				if (item != null){
+					pool.serve(item);
+				} else if (!pool.stopped && pool.readyMailboxes.isEmpty() && pool.tryRetire()){
+					retired = true;
+					if (!pool.readyMailboxes.isEmpty()){
+						/* a mailbox arrived meanwhile */
+						pool.tryStartController(pool.maxSize);
+					}
+					break;
+				}
+			}
+
+			if (!retired){
+				// stop requested, consuming existing items in the buffer
+				Runnable item = pool.readyMailboxes.poll();
+				while (item != null){
+					pool.serve(item);
+					item = pool.readyMailboxes.poll();
+				}
+				pool.size.decrementAndGet();
+			}
+			pool.controllers.remove(this);
+		}
+	}
+}
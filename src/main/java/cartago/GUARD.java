@@ -28,5 +28,21 @@ import java.lang.annotation.*;
 @Retention(RetentionPolicy.RUNTIME)  
 public @interface GUARD {
 	String[] value() default {};
+	
+	/**
+	 * What the guard depends on: the guard of a suspended op is evaluated
+	 * again only when some of its dependencies changed. Each item can be
+	 * the name of a field of the artifact (whose value is compared using equals),
+	 * the name of an observable property or a key notified by the artifact
+	 * with dependencyChanged. In keys, $i stands for the i-th guard argument.
+	 * 
+	 * Only the fields of primitive, wrapper, String and enum types can be 
+	 * dependencies: the changes in place of a collection, an array or any other 
+	 * object cannot be detected, so the artifact class is rejected as invalid. 
+	 * Use instead a key notified with dependencyChanged when the object changes.
+	 * 
+	 * If not specified, the guard is evaluated at each state change.
+	 */
+	String[] dependsOn() default {};
 }
 
@@ -66,5 +66,87 @@ public interface ICartagoController {
 	 * @throws CartagoException
 	 */
 	boolean removeAgent(String agentGlobaId) throws CartagoException;	
+
+	/**
+	 * Get the current number of controllers serving the operations
+	 * 
+	 * @return number of controller threads
+	 * @throws CartagoException
+	 */
+	int getNumControllers() throws CartagoException;
+
+	/**
+	 * Get the number of controllers currently executing operations
+	 * (including the ones blocked waiting for a guard)
+	 * 
+	 * @return number of busy controllers
+	 * @throws CartagoException
+	 */
+	int getNumBusyControllers() throws CartagoException;
+
+	/**
+	 * Get the number of artifacts with operations waiting for a controller
+	 * 
+	 * @return queue depth
+	 * @throws CartagoException
+	 */
+	int getNumPendingMailboxes() throws CartagoException;
+
+	/**
+	 * Get the max number of controllers reached so far
+	 * 
+	 * @return peak number of controllers
+	 * @throws CartagoException
+	 */
+	int getPeakNumControllers() throws CartagoException;
+
+	/**
+	 * Get how many times the pending ops of a mailbox were failed because
+	 * the controller pool was saturated, with the FAIL rejection policy
+	 * 
+	 * @return number of rejections
+	 * @throws CartagoException
+	 */
+	long getNumRejectedMailboxes() throws CartagoException;
+
+	/**
+	 * Get the number of operations waiting to be served by the artifacts
+	 * 
+	 * @return queue depth
+	 * @throws CartagoException
+	 */
+	int getNumQueuedOps() throws CartagoException;
+
+	/**
+	 * Get the number of operations requested by agents and not completed yet
+	 * 
+	 * @return ops in flight
+	 * @throws CartagoException
+	 */
+	int getNumInFlightOps() throws CartagoException;
+
+	/**
+	 * Get the number of operations admitted so far
+	 * 
+	 * @return admitted ops
+	 * @throws CartagoException
+	 */
+	long getNumAdmittedOps() throws CartagoException;
+
+	/**
+	 * Get the number of operations rejected because the requesting agent exceeded its quota
+	 * 
+	 * @return rejected ops
+	 * @throws CartagoException
+	 */
+	long getNumRejectedOps() throws CartagoException;
+
+	/**
+	 * Get the number of events dropped because the buffer of an observer was full
+	 * 
+	 * @return dropped events
+	 * @throws CartagoException
+	 */
+	long getNumDroppedEvents() throws CartagoException;
 	
 }
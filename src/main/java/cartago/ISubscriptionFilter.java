@@ -0,0 +1,48 @@
+/**
+ * CArtAgO - DISI, University of Bologna
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package cartago;
+
+/**
+ * Filter selecting the events only by the names of the observable
+ * properties and the labels of the signals they concern: an event
+ * is selected if and only if it adds, changes or removes one of the
+ * properties or it carries one of the signals.
+ * 
+ * Such filters are not evaluated for each event: the artifacts 
+ * index their observers by the names and labels of interest.
+ *  
+ * @author aricci
+ *
+ */
+public interface ISubscriptionFilter extends IEventFilter {
+
+	/**
+	 * Get the names of the properties of interest
+	 * 
+	 * @return names, empty if none
+	 */
+	String[] getPropertyNames();
+
+	/**
+	 * Get the labels of the signals of interest
+	 * 
+	 * @return labels, empty if none
+	 */
+	String[] getSignalLabels();
+
+}
@@ -19,7 +19,7 @@ package cartago;
 
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicLong;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.Lock;
 
 import cartago.events.ActionSucceededEvent;
 import cartago.events.ActionFailedEvent;
@@ -30,7 +30,7 @@ public class InterArtifactCallback implements ICartagoCallback {
 	private AtomicLong opId;
 	
 	
-	public InterArtifactCallback(ReentrantLock lock){
+	public InterArtifactCallback(Lock lock){
 		opId = new AtomicLong(1);
 		pendingOps = new ConcurrentHashMap<Long,PendingOp>();
 	}
@@ -30,6 +30,7 @@ import java.io.*;
  * @author aricci
  *
  */
+@ARTIFACT_INFO(priority=OpPriority.HIGH)
 public class ManRepoArtifact extends Artifact {
 
 	private Workspace wspKernel;
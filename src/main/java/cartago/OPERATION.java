@@ -28,5 +28,19 @@ import java.lang.annotation.*;
 @Retention(RetentionPolicy.RUNTIME)  
 public @interface OPERATION {
 	String guard() default "";
+	
+	/**
+	 * Priority class of the operation: if not specified, 
+	 * the default priority of the artifact is used.
+	 */
+	OpPriority priority() default OpPriority.DEFAULT;
+	
+	/**
+	 * A read-only operation does not change the state of the artifact: 
+	 * it can be executed in parallel with the other read-only ops.
+	 * Changes to the observable state are rejected, failing the op. 
+	 * Ops with a guard cannot be read-only: the artifact is rejected.
+	 */
+	boolean readOnly() default false;
 }
 
@@ -0,0 +1,153 @@
+/**
+ * CArtAgO - DISI, University of Bologna
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package cartago;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Secondary index of the instances of an observable property,
+ * on the values of some of their arguments.
+ * 
+ * Instances with a null value in an indexed position match 
+ * any template, so they are kept apart and always checked.
+ * When more instances match a template, the first defined is 
+ * returned, as when scanning the instances.
+ * 
+ * @author aricci
+ *
+ */
+class ObsPropIndex {
+
+	/* key of the instances with a null value in an indexed position */
+	private static final Object WILDCARD = new Object();
+
+	private int[] positions;
+	private int minArity;
+	private HashMap<Object, List<ObsProperty>> map;
+	private List<ObsProperty> wildcards;
+
+	ObsPropIndex(int[] positions){
+		this.positions = positions.clone();
+		for (int pos: positions){
+			if (pos < 0){
+				throw new IllegalArgumentException("Invalid arg position: "+pos);
+			}
+			minArity = Math.max(minArity, pos + 1);
+		}
+		map = new HashMap<Object, List<ObsProperty>>();
+		wildcards = new ArrayList<ObsProperty>();
+	}
+
+	/**
+	 * Get the key of a list of values
+	 * 
+	 * @return the key, or null if some indexed value is missing
+	 */
+	Object keyOf(Object[] values){
+		if (values.length < minArity){
+			return null;
+		}
+		if (positions.length == 1){
+			return values[positions[0]];
+		}
+		Object[] key = new Object[positions.length];
+		for (int i = 0; i < positions.length; i++){
+			key[i] = values[positions[i]];
+			if (key[i] == null){
+				return null;
+			}
+		}
+		return List.of(key);
+	}
+
+	void add(ObsProperty prop){
+		Object key = keyOf(prop.getValues());
+		if (key == null){
+			prop.indexKey = WILDCARD;
+			wildcards.add(prop);
+		} else {
+			prop.indexKey = key;
+			map.computeIfAbsent(key, k -> new ArrayList<ObsProperty>(1)).add(prop);
+		}
+	}
+
+	void remove(ObsProperty prop){
+		Object key = prop.indexKey;
+		if (key == WILDCARD){
+			wildcards.remove(prop);
+		} else if (key != null){
+			List<ObsProperty> list = map.get(key);
+			if (list != null){
+				list.remove(prop);
+				if (list.isEmpty()){
+					map.remove(key);
+				}
+			}
+		}
+		prop.indexKey = null;
+	}
+
+	/**
+	 * Move an instance whose values changed under its new key
+	 */
+	void update(ObsProperty prop){
+		Object key = keyOf(prop.getValues());
+		if (key == null ? prop.indexKey != WILDCARD : !key.equals(prop.indexKey)){
+			remove(prop);
+			add(prop);
+		}
+	}
+
+	void clear(){
+		for (List<ObsProperty> list: map.values()){
+			for (ObsProperty p: list){
+				p.indexKey = null;
+			}
+		}
+		for (ObsProperty p: wildcards){
+			p.indexKey = null;
+		}
+		map.clear();
+		wildcards.clear();
+	}
+
+	/**
+	 * Find the first defined instance matching a template
+	 * 
+	 * @param key key of the template, not null
+	 */
+	ObsProperty lookup(Object key, String name, Object[] template){
+		ObsProperty found = null;
+		List<ObsProperty> list = map.get(key);
+		if (list != null){
+			found = first(list, name, template, found);
+		}
+		return first(wildcards, name, template, found);
+	}
+
+	private static ObsProperty first(List<ObsProperty> list, String name, Object[] template, ObsProperty found){
+		for (ObsProperty p: list){
+			if ((found == null || p.getId() < found.getId()) && p.match(name, template)){
+				found = p;
+			}
+		}
+		return found;
+	}
+}
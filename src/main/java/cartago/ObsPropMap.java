@@ -2,37 +2,103 @@ package cartago;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 public class ObsPropMap implements IObsPropMap {
 
 	private Map<String,List<ObsProperty>> props;
+
+	/* secondary indexes on the args of the props, by name */
+	private Map<String,ObsPropIndex> indexes;
 	
 	private ArrayList<ObsProperty> propsChanged;
 	private ArrayList<ObsProperty> propsAdded;
 	private ArrayList<ObsProperty> propsRemoved;
 
+	/* changes made permanent but not notified yet (ops executed in batch) */
+	private LinkedHashSet<ObsProperty> deferredChanged;
+	private LinkedHashSet<ObsProperty> deferredAdded;
+	private LinkedHashSet<ObsProperty> deferredRemoved;
+
+	/* lock of the artifact: threads holding only its read lock cannot change the props */
+	private ReentrantReadWriteLock rwLock;
+
+	/**
+	 * Raised when a read-only operation tries to change the observable state
+	 */
+	static class ReadOnlyViolationException extends IllegalStateException {
+		ReadOnlyViolationException(){
+			super("The observable state cannot be changed by a read-only operation");
+		}
+	}
+
 	private static ArtifactObsProperty[] EMPTY_LIST = new ArtifactObsProperty[0];
 	
 	public ObsPropMap(){
 		props = new ConcurrentHashMap<String,List<ObsProperty>>();
+		indexes = new ConcurrentHashMap<String,ObsPropIndex>();
 		propsChanged = new ArrayList<ObsProperty>();
 		propsAdded = new ArrayList<ObsProperty>();
 		propsRemoved = new ArrayList<ObsProperty>();
-		
-		
+		deferredChanged = new LinkedHashSet<ObsProperty>();
+		deferredAdded = new LinkedHashSet<ObsProperty>();
+		deferredRemoved = new LinkedHashSet<ObsProperty>();
 	}
 	
-	public void add(ObsProperty prop){
-		List<ObsProperty> list = props.get(prop.getName());
-		if (list == null){
-			list = new ArrayList<ObsProperty>();
-			props.put(prop.getName(), list);
+	void setReadOnlyCheck(ReentrantReadWriteLock rwLock){
+		this.rwLock = rwLock;
+	}
+
+	/**
+	 * Check that the calling thread is allowed to change the props
+	 * 
+	 * @throws IllegalStateException if called within a read-only operation
+	 */
+	void checkWritable(){
+		if (rwLock != null && rwLock.getReadHoldCount() > 0 && !rwLock.isWriteLockedByCurrentThread()){
+			throw new ReadOnlyViolationException();
+		}
+	}
+
+	/**
+	 * Index the instances of a property on the values of some args.
+	 * 
+	 * @param name name of the property
+	 * @param positions positions of the indexed args
+	 */
+	void addIndex(String name, int[] positions){
+		checkWritable();
+		ObsPropIndex index = new ObsPropIndex(positions);
+		ObsPropIndex old = indexes.put(name, index);
+		if (old != null){
+			old.clear();
+		}
+		List<ObsProperty> list = props.get(name);
+		if (list != null){
+			for (ObsProperty p: list){
+				index.add(p);
+			}
 		}
-		list.add(prop);		
+	}
+
+	/* called when the values of an indexed prop change */
+	void reindex(ObsProperty prop){
+		ObsPropIndex index = indexes.get(prop.getName());
+		if (index != null){
+			index.update(prop);
+		}
+	}
+
+	public void add(ObsProperty prop){
+		checkWritable();
+		addProp(prop);
 		propsAdded.add(prop);
 	}
 	
@@ -43,6 +109,19 @@ public class ObsPropMap implements IObsPropMap {
 			props.put(prop.getName(), list);
 		}
 		list.add(prop);
+		ObsPropIndex index = indexes.get(prop.getName());
+		if (index != null){
+			index.add(prop);
+		}
+	}
+
+	private void unindex(ObsProperty prop){
+		if (prop.indexKey != null){
+			ObsPropIndex index = indexes.get(prop.getName());
+			if (index != null){
+				index.remove(prop);
+			}
+		}
 	}
 	
 	public ObsProperty getByName(String name){
@@ -55,9 +134,11 @@ public class ObsPropMap implements IObsPropMap {
 	}
 
 	public ObsProperty removeByName(String name){
+		checkWritable();
 		List<ObsProperty> list = props.get(name);
 		if (list != null){
 			ObsProperty p = list.remove(0);
+			unindex(p);
 			propsRemoved.add(p);
 			if (list.size()==0){
 				props.remove(name);
@@ -74,6 +155,13 @@ public class ObsPropMap implements IObsPropMap {
 			if (values.length == 0){
 				return list.get(0);
 			} else {
+				ObsPropIndex index = indexes.get(name);
+				if (index != null){
+					Object key = index.keyOf(values);
+					if (key != null){
+						return index.lookup(key, name, values);
+					}
+				}
 				for (ObsProperty prop: list){
 					if (prop.match(name, values)){
 						return prop;
@@ -88,20 +176,43 @@ public class ObsPropMap implements IObsPropMap {
 	
 
 	public ObsProperty remove(String name, Object... values){
+		checkWritable();
 		List<ObsProperty> list = props.get(name);
 		if (list != null){
 			if (values.length == 0){
 				props.remove(name);
+				ObsPropIndex index = indexes.get(name);
+				if (index != null){
+					index.clear();
+				}
 				ObsProperty p = list.get(0);
 				propsRemoved.add(p);
 				return p;
 			} else {
+				ObsPropIndex index = indexes.get(name);
+				if (index != null){
+					Object key = index.keyOf(values);
+					if (key != null){
+						ObsProperty prop = index.lookup(key, name, values);
+						if (prop != null){
+							/* removed by identity, without matching the other instances */
+							list.remove(prop);
+							if (list.isEmpty()){
+								props.remove(name);
+							}
+							index.remove(prop);
+							propsRemoved.add(prop);
+						}
+						return prop;
+					}
+				}
 				Iterator<ObsProperty> it = list.iterator();
 				while (it.hasNext()){
 					ObsProperty prop = it.next();
 					if (prop.match(name, values)){	
 						try {
 							it.remove();
+							unindex(prop);
 							propsRemoved.add(prop);
 							return prop;
 						} catch (Exception ex) {
@@ -125,6 +236,7 @@ public class ObsPropMap implements IObsPropMap {
 					if (prop.getId() == id){
 						try {
 							it.remove();
+							unindex(prop);
 						} catch (Exception ex) {
 							ex.printStackTrace();
 						}
@@ -149,34 +261,23 @@ public class ObsPropMap implements IObsPropMap {
 
 	
 	public ArtifactObsProperty[] getPropsChanged(){
-		if (propsChanged.size() > 0){
-			ArtifactObsProperty[] v = new ArtifactObsProperty[propsChanged.size()];
-			for (int i = 0; i < v.length; i++){
-				v[i] = propsChanged.get(i).getUserCopy();
-			}
-			return v;
-		} else {
-			return EMPTY_LIST;
-		}
+		return getUserCopies(deferredChanged.isEmpty() ? propsChanged : deferredChanged);
 	}
 	
 	public ArtifactObsProperty[] getPropsAdded(){
-		if (propsAdded.size() > 0){
-			ArtifactObsProperty[] v = new ArtifactObsProperty[propsAdded.size()];
-			for (int i = 0; i < v.length; i++){
-				v[i] = propsAdded.get(i).getUserCopy();
-			}
-			return v;
-		} else {
-			return EMPTY_LIST;
-		}
+		return getUserCopies(deferredAdded.isEmpty() ? propsAdded : deferredAdded);
 	}
 
 	public ArtifactObsProperty[] getPropsRemoved(){
-		if (propsRemoved.size() > 0){
-			ArtifactObsProperty[] v = new ArtifactObsProperty[propsRemoved.size()];
-			for (int i = 0; i < v.length; i++){
-				v[i] = propsRemoved.get(i).getUserCopy();
+		return getUserCopies(deferredRemoved.isEmpty() ? propsRemoved : deferredRemoved);
+	}
+	
+	private ArtifactObsProperty[] getUserCopies(Collection<ObsProperty> list){
+		if (list.size() > 0){
+			ArtifactObsProperty[] v = new ArtifactObsProperty[list.size()];
+			int i = 0;
+			for (ObsProperty p: list){
+				v[i++] = p.getUserCopy();
 			}
 			return v;
 		} else {
@@ -184,6 +285,31 @@ public class ObsPropMap implements IObsPropMap {
 		}
 	}
 	
+	/**
+	 * Add the names of the props changed, added or removed 
+	 * and not notified yet, without making copies of them
+	 */
+	void collectChangedNames(Set<String> names){
+		for (ObsProperty p: propsChanged){
+			names.add(p.getName());
+		}
+		for (ObsProperty p: propsAdded){
+			names.add(p.getName());
+		}
+		for (ObsProperty p: propsRemoved){
+			names.add(p.getName());
+		}
+		for (ObsProperty p: deferredChanged){
+			names.add(p.getName());
+		}
+		for (ObsProperty p: deferredAdded){
+			names.add(p.getName());
+		}
+		for (ObsProperty p: deferredRemoved){
+			names.add(p.getName());
+		}
+	}
+
 	public void commitChanges(){
 		for (ObsProperty p: propsChanged){
 			p.commitChanges();
@@ -191,6 +317,40 @@ public class ObsPropMap implements IObsPropMap {
 		propsChanged.clear();
 		propsRemoved.clear();
 		propsAdded.clear();
+		deferredChanged.clear();
+		deferredAdded.clear();
+		deferredRemoved.clear();
+	}
+
+	/**
+	 * Make permanent the changes done so far, deferring their notification
+	 * to the next commit. The changes are merged with the ones already 
+	 * deferred: a property added and then changed is notified as added,
+	 * a property added and then removed is not notified at all.
+	 */
+	public void deferChanges(){
+		for (ObsProperty p: propsAdded){
+			deferredAdded.add(p);
+		}
+		for (ObsProperty p: propsChanged){
+			p.commitChanges();
+			if (!deferredAdded.contains(p)){
+				deferredChanged.add(p);
+			}
+		}
+		for (ObsProperty p: propsRemoved){
+			deferredChanged.remove(p);
+			if (!deferredAdded.remove(p)){
+				deferredRemoved.add(p);
+			}
+		}
+		propsChanged.clear();
+		propsRemoved.clear();
+		propsAdded.clear();
+	}
+
+	public boolean hasDeferredChanges(){
+		return !deferredChanged.isEmpty() || !deferredAdded.isEmpty() || !deferredRemoved.isEmpty();
 	}
 
 	public void rollbackChanges(){
@@ -213,7 +373,7 @@ public class ObsPropMap implements IObsPropMap {
 	public ArtifactObsProperty getPropValue(String name, Object... values){
 		ObsProperty prop = get(name,values);
 		if (prop!=null){
-			return new ArtifactObsProperty(prop.getFullId(),prop.getId(),prop.getName(),prop.getValues()).setAnnots(prop.getAnnots());
+			return prop.getUserCopy();
 		} else {
 			return null;
 		}
@@ -232,7 +392,7 @@ public class ObsPropMap implements IObsPropMap {
 	public ArtifactObsProperty getPropValueByName(String name){
 		ObsProperty prop = getByName(name);
 		if (prop!=null){
-			return new ArtifactObsProperty(prop.getFullId(),prop.getId(),prop.getName(),prop.getValues()).setAnnots(prop.getAnnots());
+			return prop.getUserCopy();
 		} else {
 			return null;
 		}
@@ -18,16 +18,29 @@
 package cartago;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 /**
  * Class represeting artifact observable properties.
  * 
+ * Single-valued properties of kind int, long, double and boolean
+ * (see Artifact.defineIntObsProperty etc.) keep their value unboxed: 
+ * the boxed value is created only when the values are requested 
+ * as objects, typically to notify the observers.
+ * 
  * @author aricci
  *
  */
 public class ObsProperty implements java.io.Serializable {
 
+	/* kinds of property */
+	static final byte GENERIC = 0;
+	static final byte INT = 1;
+	static final byte LONG = 2;
+	static final byte DOUBLE = 3;
+	static final byte BOOLEAN = 4;
+
 	private String name;
 	private Object[] values;
 	private Object[] backup;
@@ -37,6 +50,21 @@ public class ObsProperty implements java.io.Serializable {
 	private String fullId;
 	private List<Object> annots = null;
 	
+	/* incremented at each change of the values or of the annotations */
+	private volatile long version;
+	/* immutable snapshot shared by all the consumers, valid until the next change */
+	private transient volatile ArtifactObsProperty snapshot;
+	/* key in the index of the container, if the property is indexed */
+	transient Object indexKey;
+
+	/* for the primitive kinds: the unboxed value (the bits of the double for DOUBLE) */
+	private byte kind;
+	private long prim;
+	private byte backupKind;
+	private long primBackup;
+	/* version of the value boxed in values[0] */
+	private volatile long boxedVersion;
+	
 	ObsProperty(ObsPropMap container, long id, String fullId, String name, Object... values){
     	this.name = name;
     	this.values = values;
@@ -47,6 +75,13 @@ public class ObsProperty implements java.io.Serializable {
     	this.fullId = fullId;
 	}
 
+	ObsProperty(ObsPropMap container, long id, String fullId, String name, byte kind, long value){
+		this(container, id, fullId, name, new Object[1]);
+		this.kind = kind;
+		this.prim = value;
+		boxedVersion = -1;
+	}
+
 	public long getId(){
 		return id;
 	}
@@ -68,6 +103,7 @@ public class ObsProperty implements java.io.Serializable {
 		if (annots == null) 
 			annots = new ArrayList<Object>();
 		annots.add(o);
+		version++;
 	}
 	
 	public List<Object> getAnnots() {
@@ -92,6 +128,7 @@ public class ObsProperty implements java.io.Serializable {
 	 * @return
 	 */
 	public Object getValue(int index){
+		boxValues();
 		return values[index];
 	}
     
@@ -100,6 +137,7 @@ public class ObsProperty implements java.io.Serializable {
 	 * @return
 	 */
 	public Object[] getValues(){
+		boxValues();
 		return values;
 	}
   
@@ -112,6 +150,7 @@ public class ObsProperty implements java.io.Serializable {
 	 * @return
 	 */
 	public int intValue(int index){
+		boxValues();
 		return ((Number)values[index]).intValue();
 	}
 	
@@ -123,6 +162,7 @@ public class ObsProperty implements java.io.Serializable {
 	 * @return
 	 */
 	public double doubleValue(int index){
+		boxValues();
 		return ((Number)values[index]).doubleValue();
 	}
 	
@@ -134,6 +174,7 @@ public class ObsProperty implements java.io.Serializable {
 	 * @return
 	 */
 	public String stringValue(int index){
+		boxValues();
 		return values[index].toString();
 	}
 	
@@ -145,6 +186,7 @@ public class ObsProperty implements java.io.Serializable {
 	 * @return
 	 */
 	public boolean booleanValue(int index){
+		boxValues();
 		return (Boolean)values[index];
 	}
 	
@@ -156,6 +198,7 @@ public class ObsProperty implements java.io.Serializable {
 	 * @return
 	 */
 	public float floatValue(int index){
+		boxValues();
 		return ((Number)values[index]).floatValue();
 	}
 	
@@ -167,6 +210,7 @@ public class ObsProperty implements java.io.Serializable {
 	 * @return
 	 */
 	public long longValue(int index){
+		boxValues();
 		return ((Number)values[index]).longValue();
 	}
 	
@@ -178,6 +222,7 @@ public class ObsProperty implements java.io.Serializable {
 	 * @return
 	 */
 	public char charValue(int index){
+		boxValues();
 		return (Character)values[index];
 	}
 	
@@ -189,7 +234,12 @@ public class ObsProperty implements java.io.Serializable {
 	 * @return
 	 */
 	public int intValue(){
-		return ((Number)values[0]).intValue();
+		if (kind == INT || kind == LONG){
+			return (int) prim;
+		} else if (kind == DOUBLE){
+			return (int) Double.longBitsToDouble(prim);
+		}
+		return ((Number)getValue()).intValue();
 	}
 	
 	/**
@@ -200,7 +250,12 @@ public class ObsProperty implements java.io.Serializable {
 	 * @return
 	 */
 	public double doubleValue(){
-		return ((Number)values[0]).doubleValue();
+		if (kind == INT || kind == LONG){
+			return prim;
+		} else if (kind == DOUBLE){
+			return Double.longBitsToDouble(prim);
+		}
+		return ((Number)getValue()).doubleValue();
 	}
 	
 	/**
@@ -211,7 +266,7 @@ public class ObsProperty implements java.io.Serializable {
 	 * @return
 	 */
 	public String stringValue(){
-		return values[0].toString();
+		return getValue().toString();
 	}
 	
 	/**
@@ -222,7 +277,10 @@ public class ObsProperty implements java.io.Serializable {
 	 * @return
 	 */
 	public boolean booleanValue(){
-		return (Boolean)values[0];
+		if (kind == BOOLEAN){
+			return prim != 0;
+		}
+		return (Boolean)getValue();
 	}
 	
 	/**
@@ -233,7 +291,12 @@ public class ObsProperty implements java.io.Serializable {
 	 * @return
 	 */
 	public float floatValue(){
-		return ((Number)values[0]).floatValue();
+		if (kind == INT || kind == LONG){
+			return prim;
+		} else if (kind == DOUBLE){
+			return (float) Double.longBitsToDouble(prim);
+		}
+		return ((Number)getValue()).floatValue();
 	}
 	
 	/**
@@ -244,7 +307,12 @@ public class ObsProperty implements java.io.Serializable {
 	 * @return
 	 */
 	public long longValue(){
-		return ((Number)values[0]).longValue();
+		if (kind == INT || kind == LONG){
+			return prim;
+		} else if (kind == DOUBLE){
+			return (long) Double.longBitsToDouble(prim);
+		}
+		return ((Number)getValue()).longValue();
 	}
 	
 	/**
@@ -255,7 +323,7 @@ public class ObsProperty implements java.io.Serializable {
 	 * @return
 	 */
 	public char charValue(){
-		return (Character)values[0];
+		return (Character)getValue();
 	}
 
 	/**
@@ -265,6 +333,7 @@ public class ObsProperty implements java.io.Serializable {
 	 * @param value
 	 */
 	public Object getValue(){
+		boxValues();
 		return values[0];
 	}
 
@@ -276,26 +345,155 @@ public class ObsProperty implements java.io.Serializable {
 	 * @param value
 	 */
 	public void updateValue(Object value){
-		if (!modified){
-			modified = true;
-			for (int i = 0; i < values.length; i++){
-				backup[i] = values[i]; 
+		beforeChange();
+		if (kind != GENERIC && !storePrim(value)){
+			toGeneric();
+		}
+		if (kind == GENERIC){
+			this.values[0] = value;
+		}
+		afterChange();
+	}
+
+	/**
+	 * Update the index-0 value with an int, 
+	 * without boxing it if the property is of kind int
+	 * 
+	 * @param value
+	 */
+	public void updateIntValue(int value){
+		if (kind == INT){
+			updatePrim(value);
+		} else {
+			updateValue(value);
+		}
+	}
+
+	/**
+	 * Update the index-0 value with a long, 
+	 * without boxing it if the property is of kind long
+	 * 
+	 * @param value
+	 */
+	public void updateLongValue(long value){
+		if (kind == LONG){
+			updatePrim(value);
+		} else {
+			updateValue(value);
+		}
+	}
+
+	/**
+	 * Update the index-0 value with a double, 
+	 * without boxing it if the property is of kind double
+	 * 
+	 * @param value
+	 */
+	public void updateDoubleValue(double value){
+		if (kind == DOUBLE){
+			updatePrim(Double.doubleToRawLongBits(value));
+		} else {
+			updateValue(value);
+		}
+	}
+
+	/**
+	 * Update the index-0 value with a boolean, 
+	 * without boxing it if the property is of kind boolean
+	 * 
+	 * @param value
+	 */
+	public void updateBooleanValue(boolean value){
+		if (kind == BOOLEAN){
+			updatePrim(value ? 1 : 0);
+		} else {
+			updateValue(value);
+		}
+	}
+
+	/**
+	 * Add a delta to the index-0 value, keeping its type
+	 * (as the compound assignment +=).
+	 * 
+	 * The value is updated in place if the property is of kind int or long.
+	 * 
+	 * @param delta
+	 * @throws IllegalArgumentException if the value is not an integer, long, float or double
+	 */
+	public void incValue(long delta){
+		if (kind == INT || kind == LONG){
+			updatePrim(prim + delta);
+		} else if (kind == DOUBLE){
+			updatePrim(Double.doubleToRawLongBits(Double.longBitsToDouble(prim) + delta));
+		} else {
+			Object v = getValue();
+			if (v instanceof Integer){
+				updateValue((int)((Integer) v + delta));
+			} else if (v instanceof Long){
+				updateValue((Long) v + delta);
+			} else if (v instanceof Double){
+				updateValue((Double) v + delta);
+			} else if (v instanceof Float){
+				updateValue((Float) v + delta);
+			} else {
+				throw new IllegalArgumentException("not a numeric observable property: " + name);
+			}
+		}
+	}
+
+	/**
+	 * Add a delta to the index-0 value, keeping its type
+	 * (as the compound assignment +=).
+	 * 
+	 * The value is updated in place if the property is of kind double.
+	 * 
+	 * @param delta
+	 * @throws IllegalArgumentException if the value is not an integer, long, float or double
+	 */
+	public void incValue(double delta){
+		if (kind == DOUBLE){
+			updatePrim(Double.doubleToRawLongBits(Double.longBitsToDouble(prim) + delta));
+		} else if (kind == INT){
+			updatePrim((int)(prim + delta));
+		} else if (kind == LONG){
+			updatePrim((long)(prim + delta));
+		} else {
+			Object v = getValue();
+			if (v instanceof Integer){
+				updateValue((int)((Integer) v + delta));
+			} else if (v instanceof Long){
+				updateValue((long)((Long) v + delta));
+			} else if (v instanceof Double){
+				updateValue((Double) v + delta);
+			} else if (v instanceof Float){
+				updateValue((float)((Float) v + delta));
+			} else {
+				throw new IllegalArgumentException("not a numeric observable property: " + name);
 			}
-			container.addPropChanged(this);
 		}
-		this.values[0] = value;
 	}
 
-	
 	public void commitChanges(){
 		modified = false;
 	}
 
 	public void rollbackChanges(){
-		for (int i = 0; i < values.length; i++){
-			values[i] = backup[i]; 
+		kind = backupKind;
+		if (kind == GENERIC){
+			if (values.length != backup.length){
+				values = new Object[backup.length];
+			}
+			for (int i = 0; i < values.length; i++){
+				values[i] = backup[i]; 
+			}
+		} else {
+			if (values.length != 1){
+				values = new Object[1];
+			}
+			prim = primBackup;
 		}
 		modified = false;
+		afterChange();
 	}
 
 	/**
@@ -305,14 +503,14 @@ public class ObsProperty implements java.io.Serializable {
 	 * @param value
 	 */
 	public void updateValue(int index, Object value){
-		if (!modified){
-			modified = true;
-			for (int i = 0; i < values.length; i++){
-				backup[i] = values[i]; 
-			}
-			container.addPropChanged(this);
+		if (index == 0){
+			updateValue(value);
+			return;
 		}
+		beforeChange();
+		toGeneric();
 		this.values[index] = value;
+		afterChange();
 	}
 
 	/**
@@ -321,17 +519,111 @@ public class ObsProperty implements java.io.Serializable {
 	 * @param value
 	 */
 	public void updateValues(Object... values){
+		beforeChange();
+		if (kind != GENERIC && (values.length != 1 || !storePrim(values[0]))){
+			toGeneric();
+		}
+		if (kind == GENERIC){
+			this.values = values;
+		}
+		afterChange();
+	}
+
+	/* 
+	 * To be called before changing the value: the first change
+	 * within an operation saves the values for the rollback 
+	 */
+	private void beforeChange(){
+		container.checkWritable();
 		if (!modified){
 			modified = true;
-			for (int i = 0; i < values.length; i++){
-				backup[i] = this.values[i]; 
+			backupKind = kind;
+			if (kind == GENERIC){
+				if (backup.length != values.length){
+					backup = new Object[values.length];
+				}
+				for (int i = 0; i < values.length; i++){
+					backup[i] = values[i]; 
+				}
+			} else {
+				primBackup = prim;
 			}
 			container.addPropChanged(this);
 		}
-		this.values = values;
+	}
+
+	private void afterChange(){
+		version++;
+		if (indexKey != null){
+			container.reindex(this);
+		}
+	}
+
+	private void updatePrim(long value){
+		beforeChange();
+		prim = kind == INT ? (int) value : value;
+		afterChange();
+	}
+
+	/* store the value unboxed, if it is of the kind of the property */
+	private boolean storePrim(Object value){
+		switch (kind){
+		case INT:
+			if (value instanceof Integer){
+				prim = (Integer) value;
+				return true;
+			}
+			break;
+		case LONG:
+			if (value instanceof Long){
+				prim = (Long) value;
+				return true;
+			}
+			break;
+		case DOUBLE:
+			if (value instanceof Double){
+				prim = Double.doubleToRawLongBits((Double) value);
+				return true;
+			}
+			break;
+		case BOOLEAN:
+			if (value instanceof Boolean){
+				prim = ((Boolean) value) ? 1 : 0;
+				return true;
+			}
+			break;
+		}
+		return false;
+	}
+
+	/* a value of another type has been assigned: keep the value boxed from now on */
+	private void toGeneric(){
+		if (kind != GENERIC){
+			boxValues();
+			kind = GENERIC;
+		}
+	}
+
+	/*
+	 * Box the unboxed value in values[0], if not boxed yet after the last change.
+	 * As for the snapshots, the version is read before boxing, so that 
+	 * a value boxed while racing with a change is boxed again.
+	 */
+	private void boxValues(){
+		long v = version;
+		if (kind != GENERIC && boxedVersion != v){
+			switch (kind){
+			case INT: values[0] = (int) prim; break;
+			case LONG: values[0] = prim; break;
+			case DOUBLE: values[0] = Double.longBitsToDouble(prim); break;
+			case BOOLEAN: values[0] = prim != 0; break;
+			}
+			boxedVersion = v;
+		}
 	}
 
 	public boolean match(String nam, Object... v){
+		boxValues();
 		if (!name.equals(nam) || values.length != v.length){
 			return false;
 		} else {
@@ -346,12 +638,30 @@ public class ObsProperty implements java.io.Serializable {
 		}
 	}
 	
+	/*
+	 * Get the snapshot of the current state of the property. 
+	 * 
+	 * The snapshot is created the first time it is requested after a change
+	 * and then shared by all the consumers (observers, loggers, CS mappings), 
+	 * so it must not be modified. The version is read before copying 
+	 * the values and changes increment it after updating them: a snapshot 
+	 * racing with a change is tagged with an old version and then discarded. 
+	 */
 	ArtifactObsProperty getUserCopy(){
-		return new ArtifactObsProperty(fullId,id,name,values.clone()).setAnnots(cloneAnnots());
+		ArtifactObsProperty s = snapshot;
+		long v = version;
+		if (s == null || s.getVersion() != v){
+			List<Object> annotsCopy = annots == null ? null : Collections.unmodifiableList(cloneAnnots());
+			boxValues();
+			s = new ArtifactObsProperty(v, fullId, id, name, annotsCopy, values.clone());
+			snapshot = s;
+		}
+		return s;
 	}
 	
 	public String toString(){
     	StringBuffer st = new StringBuffer(name);
+    	boxValues();
     	if (values.length>0){
     		st.append("("+values[0]);
     		for (int i=1; i<values.length; i++){
@@ -0,0 +1,132 @@
+/**
+ * CArtAgO - DISI, University of Bologna
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package cartago;
+
+import cartago.Workspace.OverflowPolicy;
+
+/**
+ * Bounded ring buffer of the events to be delivered to an observer
+ * (async event delivery).
+ *
+ * Events are enqueued by the thread executing the op, which then
+ * releases the artifact; they are delivered to the observer callback
+ * by a drain task executed by the workspace, in the order they were
+ * enqueued. At most one drain task per buffer is scheduled at a time.
+ * When the buffer is full the overflow policy of the workspace is applied.
+ *
+ * @author aricci
+ *
+ */
+class ObserverEventBuffer implements Runnable {
+
+	/* max events delivered by a drain task before releasing the thread */
+	private static final int MAX_BATCH = 64;
+
+	private Workspace wsp;
+	private ICartagoCallback listener;
+	private OverflowPolicy policy;
+
+	private CartagoEvent[] events;
+	private int head;
+	private int size;
+	private boolean scheduled;
+
+	ObserverEventBuffer(Workspace wsp, ICartagoCallback listener, int capacity, OverflowPolicy policy){
+		this.wsp = wsp;
+		this.listener = listener;
+		this.policy = policy;
+		events = new CartagoEvent[capacity];
+		head = 0;
+		size = 0;
+		scheduled = false;
+	}
+
+	/**
+	 * Enqueue an event, scheduling the drain task if needed.
+	 *
+	 * @param ev event
+	 * @return false if the event (or an older one) has been dropped
+	 */
+	boolean offer(CartagoEvent ev){
+		boolean dropped = false;
+		boolean schedule = false;
+		synchronized (this){
+			while (size == events.length){
+				if (policy == OverflowPolicy.DROP_NEWEST){
+					wsp.notifyEventsDropped(1);
+					return false;
+				} else if (policy == OverflowPolicy.DROP_OLDEST){
+					events[head] = null;
+					head = (head + 1) % events.length;
+					size--;
+					dropped = true;
+				} else {
+					try {
+						wait();
+					} catch (InterruptedException ex){
+						Thread.currentThread().interrupt();
+						wsp.notifyEventsDropped(1);
+						return false;
+					}
+				}
+			}
+			events[(head + size) % events.length] = ev;
+			size++;
+			if (!scheduled){
+				scheduled = true;
+				schedule = true;
+			}
+		}
+		if (dropped){
+			wsp.notifyEventsDropped(1);
+		}
+		if (schedule){
+			wsp.scheduleTask(this, OpPriority.HIGH);
+		}
+		return !dropped;
+	}
+
+	/**
+	 * Deliver the events enqueued so far
+	 */
+	public void run(){
+		for (int i = 0; i < MAX_BATCH; i++){
+			CartagoEvent ev;
+			synchronized (this){
+				if (size == 0){
+					scheduled = false;
+					return;
+				}
+				ev = events[head];
+				events[head] = null;
+				head = (head + 1) % events.length;
+				size--;
+				if (policy == OverflowPolicy.BLOCK){
+					notifyAll();
+				}
+			}
+			try {
+				listener.notifyCartagoEvent(ev);
+			} catch (Exception ex){
+				ex.printStackTrace();
+			}
+		}
+		/* more events to deliver: giving the other tasks a chance */
+		wsp.scheduleTask(this, OpPriority.HIGH);
+	}
+}
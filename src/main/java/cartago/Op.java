@@ -27,6 +27,9 @@ public class Op implements java.io.Serializable {
 
 	private String name;
 	private Object[] paramValues;
+	/* resolved signature codes, NO_CODE if not resolved yet */
+	private transient int code;
+	private transient int varArgsCode;
 		
 	Op(){}
 	
@@ -49,6 +52,30 @@ public class Op implements java.io.Serializable {
 		return paramValues;
 	}
 
+	/*
+	 * Code of the signature of the op, resolved the first time 
+	 */
+	int getCode(){
+		int c = code;
+		if (c == OpCodes.NO_CODE){
+			c = OpCodes.lookupCode(name, paramValues.length);
+			code = c;
+		}
+		return c;
+	}
+
+	/*
+	 * Code of the var args signature with the name of the op
+	 */
+	int getVarArgsCode(){
+		int c = varArgsCode;
+		if (c == OpCodes.NO_CODE){
+			c = OpCodes.lookupCode(name, -1);
+			varArgsCode = c;
+		}
+		return c;
+	}
+
 
 	public String toString(){
 		StringBuffer st = new StringBuffer("( "+name);
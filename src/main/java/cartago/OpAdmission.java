@@ -0,0 +1,119 @@
+/**
+ * CArtAgO - DISI, University of Bologna
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package cartago;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Admission control of the operations requested by agents.
+ *
+ * Keeps track of the operations in flight (requested and not
+ * completed/failed yet) for each agent, so that requests exceeding
+ * the per-agent quota can be rejected without blocking the agent.
+ *
+ * @author aricci
+ *
+ */
+class OpAdmission {
+
+	/* max number of ops in flight for an agent, 0 = no limit */
+	private volatile int maxInFlightPerAgent;
+
+	private ConcurrentHashMap<AgentId, AtomicInteger> inFlight;
+	private AtomicInteger nInFlight;
+	private AtomicLong nAdmitted;
+	private AtomicLong nRejected;
+
+	OpAdmission(){
+		maxInFlightPerAgent = 0;
+		inFlight = new ConcurrentHashMap<AgentId, AtomicInteger>();
+		nInFlight = new AtomicInteger(0);
+		nAdmitted = new AtomicLong(0);
+		nRejected = new AtomicLong(0);
+	}
+
+	void setMaxInFlightPerAgent(int max){
+		if (max < 0){
+			throw new IllegalArgumentException("Invalid quota: "+max);
+		}
+		maxInFlightPerAgent = max;
+	}
+
+	int getMaxInFlightPerAgent(){
+		return maxInFlightPerAgent;
+	}
+
+	/**
+	 * Try to admit a new op requested by an agent.
+	 *
+	 * @param agentId
+	 * @return false if the agent exceeded its quota
+	 */
+	boolean tryAdmit(AgentId agentId){
+		AtomicInteger count = inFlight.computeIfAbsent(agentId, k -> new AtomicInteger(0));
+		int max = maxInFlightPerAgent;
+		while (true){
+			int n = count.get();
+			if (max > 0 && n >= max){
+				nRejected.incrementAndGet();
+				return false;
+			}
+			if (count.compareAndSet(n, n + 1)){
+				nInFlight.incrementAndGet();
+				nAdmitted.incrementAndGet();
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Called when an admitted op completed or failed
+	 *
+	 * @param agentId
+	 */
+	void release(AgentId agentId){
+		AtomicInteger count = inFlight.get(agentId);
+		if (count != null){
+			count.decrementAndGet();
+		}
+		nInFlight.decrementAndGet();
+	}
+
+	/**
+	 * Forget an agent that quit the workspace.
+	 *
+	 * @param agentId
+	 */
+	void removeAgent(AgentId agentId){
+		inFlight.remove(agentId);
+	}
+
+	int getNumInFlight(){
+		return nInFlight.get();
+	}
+
+	long getNumAdmitted(){
+		return nAdmitted.get();
+	}
+
+	long getNumRejected(){
+		return nRejected.get();
+	}
+}
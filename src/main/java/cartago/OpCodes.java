@@ -0,0 +1,121 @@
+/**
+ * CArtAgO - DISI, University of Bologna
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package cartago;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Registry of the integer codes of operation signatures (name and number of args).
+ * 
+ * Codes are assigned when an operation is registered, are unique in the process
+ * and start from 1, so they can be used to index arrays. The code of a signature
+ * is retrieved without building its key string, so the codes are used in place
+ * of the keys on the dispatch path.
+ * 
+ * @author aricci
+ *
+ */
+class OpCodes {
+
+	/* code of signatures not registered */
+	static final int NO_CODE = 0;
+
+	/* op name -> codes indexed by nargs + 1, with var args at index 0 */
+	private static final ConcurrentHashMap<String, int[]> codes = new ConcurrentHashMap<String, int[]>();
+	private static final AtomicInteger nextCode = new AtomicInteger(1);
+
+	private OpCodes() {}
+
+	/**
+	 * Get the code of a signature, assigning it if not registered yet.
+	 * 
+	 * @param name op name
+	 * @param nargs number of args, -1 for var args
+	 */
+	static int getCode(String name, int nargs) {
+		int code = lookupCode(name, nargs);
+		if (code != NO_CODE) {
+			return code;
+		}
+		int index = nargs + 1;
+		int[] sign = codes.compute(name, (k, current) -> {
+			if (current != null && index < current.length && current[index] != NO_CODE) {
+				return current;
+			}
+			int[] updated = new int[Math.max(index + 1, current != null ? current.length : 0)];
+			if (current != null) {
+				System.arraycopy(current, 0, updated, 0, current.length);
+			}
+			updated[index] = nextCode.getAndIncrement();
+			return updated;
+		});
+		return sign[index];
+	}
+
+	/**
+	 * Get the code of a signature, given its key.
+	 * 
+	 * @param opKey key, as computed by Artifact.getOpKey
+	 */
+	static int getCode(String opKey) {
+		int index = opKey.lastIndexOf('/');
+		String args = opKey.substring(index + 1);
+		if (index > 0 && args.equals("_")) {
+			return getCode(opKey.substring(0, index), -1);
+		}
+		try {
+			return getCode(opKey.substring(0, index), Integer.parseInt(args));
+		} catch (RuntimeException ex) {
+			/* not a key built by getOpKey */
+			return getCode(opKey, -1);
+		}
+	}
+
+	/**
+	 * Get the code of a signature, without registering it.
+	 * 
+	 * @param name op name
+	 * @param nargs number of args, -1 for var args
+	 * @return the code or NO_CODE if not registered
+	 */
+	static int lookupCode(String name, int nargs) {
+		int[] sign = codes.get(name);
+		int index = nargs + 1;
+		return sign != null && index < sign.length ? sign[index] : NO_CODE;
+	}
+
+	/**
+	 * Get the codes registered for an op name, for any number of args.
+	 */
+	static int[] getCodes(String name) {
+		int[] sign = codes.get(name);
+		if (sign == null) {
+			return new int[0];
+		}
+		int n = 0;
+		int[] all = new int[sign.length];
+		for (int code: sign) {
+			if (code != NO_CODE) {
+				all[n++] = code;
+			}
+		}
+		return Arrays.copyOf(all, n);
+	}
+}
@@ -27,41 +27,79 @@ import java.lang.reflect.*;
  */
 public class OpDescriptor {
 
-	private IArtifactOp op;
-	private IArtifactGuard guard;
+	private ISharedArtifactOp op;
+	private ISharedArtifactGuard guard;
     private String id;	
 	public static enum OpType { LINK, UI, INTERNAL};
 	private OpType type;
 	private boolean isDynamic;
+	private OpPriority priority;
+	private boolean readOnly;
+	/* code of the signature in the key */
+	private int code;
+	private boolean varArgsKey;
 	
 	public OpDescriptor(String id, IArtifactOp op, IArtifactGuard guard, OpType t){
-		this(id, op, t);
-		this.guard = guard;
+		this(id, new BoundOp(op), guard != null ? new BoundGuard(guard) : null, t);
+		isDynamic = op instanceof ArtifactDynOp;
 	}
 
 	public OpDescriptor(String id, IArtifactOp op, OpType t){
+		this(id, op, null, t);
+	}
+
+	/*
+	 * Descriptor of an operation shared by the artifacts of a class
+	 */
+	OpDescriptor(String id, ISharedArtifactOp op, ISharedArtifactGuard guard, OpType t){
 		this.op = op;
-		this.guard = null;
+		this.guard = guard;
 		this.type = t;
 		this.id = id;
-		if (op instanceof ArtifactDynOp) {
-			isDynamic = true;
-		} else {
-			isDynamic = false;
-		}
+		code = OpCodes.getCode(id);
+		varArgsKey = id.endsWith("/_");
+		priority = OpPriority.NORMAL;
+		isDynamic = false;
 	}
 
-	public IArtifactOp getOp(){
+	public ISharedArtifactOp getOp(){
 		return op;
 	}
 	
-	public IArtifactGuard getGuard(){
+	public ISharedArtifactGuard getGuard(){
 		return guard;
 	}
 	
 	public String getKeyId(){
 		return id;
 	}
+
+	int getCode(){
+		return code;
+	}
+
+	/*
+	 * true if the key is the var args one, matching any number of args
+	 */
+	boolean hasVarArgsKey(){
+		return varArgsKey;
+	}
+	
+	public OpPriority getPriority(){
+		return priority;
+	}
+	
+	void setPriority(OpPriority priority){
+		this.priority = priority;
+	}
+	
+	public boolean isReadOnly(){
+		return readOnly;
+	}
+	
+	void setReadOnly(boolean readOnly){
+		this.readOnly = readOnly;
+	}
 	
 	public boolean isDynamic() {
 		return isDynamic;
@@ -78,4 +116,60 @@ public class OpDescriptor {
 	public boolean isInternalOp(){
 		return type == OpType.INTERNAL;
 	}
+
+	/*
+	 * Operation defined for a specific artifact
+	 */
+	private static class BoundOp implements ISharedArtifactOp {
+
+		private IArtifactOp op;
+
+		BoundOp(IArtifactOp op){
+			this.op = op;
+		}
+
+		public void exec(Artifact artifact, Object[] actualParams) throws Exception {
+			op.exec(actualParams);
+		}
+
+		public int getNumParameters(){
+			return op.getNumParameters();
+		}
+
+		public String getName(){
+			return op.getName();
+		}
+
+		public boolean isVarArgs(){
+			return op.isVarArgs();
+		}
+	}
+
+	/*
+	 * Guard defined for a specific artifact
+	 */
+	private static class BoundGuard implements ISharedArtifactGuard {
+
+		private IArtifactGuard guard;
+
+		BoundGuard(IArtifactGuard guard){
+			this.guard = guard;
+		}
+
+		public boolean eval(Artifact artifact, Object[] actualParams) throws Exception {
+			return guard.eval(actualParams);
+		}
+
+		public int getNumParameters(){
+			return guard.getNumParameters();
+		}
+
+		public String getName(){
+			return guard.getName();
+		}
+
+		public String[] getDependencies(){
+			return null;
+		}
+	}
 }
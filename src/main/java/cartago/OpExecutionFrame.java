@@ -17,8 +17,6 @@
  */
 package cartago;
 
-import java.util.*;
-import java.util.concurrent.locks.*;
 
 /**
  * Execution context  of an operation.
@@ -48,8 +46,6 @@ public class OpExecutionFrame {
 	private ArtifactId sourceId;
 	
 	private IAlignmentTest alignmentTest;
-	private ReentrantLock lock;
-	private Condition opSignaled;
 		
 	//
 	private String failureMsg;
@@ -57,6 +53,21 @@ public class OpExecutionFrame {
 	
 	boolean alreadyNotified;
 	
+	// mailbox owned while the frame is served, given back if the op suspends
+	private ArtifactMailbox ownedMailbox;
+	
+	// true if the op has been suspended waiting for its guard
+	private boolean suspended;
+	
+	// admission control the op is accounted to, until completed or failed
+	private OpAdmission admission;
+	
+	// priority class of the op, set when the frame is queued
+	private OpPriority priority = OpPriority.NORMAL;
+	
+	// true if the op is read-only, set when the frame is queued
+	private boolean readOnly;
+	
 	public OpExecutionFrame(Workspace kernel, OpId oid, ICartagoCallback ctx, long actionId, AgentId id, ArtifactId aid, Op op, long timeout, IAlignmentTest test){
 		this.oid=oid;
 		this.op = op;
@@ -68,8 +79,6 @@ public class OpExecutionFrame {
 		sourceId = null;
 		this.actionId = actionId;
 		this.eventListener = ctx;
-		lock = new ReentrantLock();
-		opSignaled = lock.newCondition();
 		state = OpExecState.EXECUTING;
 		this.kernel = kernel;
 		alreadyNotified = false;
@@ -85,8 +94,6 @@ public class OpExecutionFrame {
 		this.timeout = timeout;
 		sourceId = source;
 		this.actionId = actionId;
-		lock = new ReentrantLock();
-		opSignaled = lock.newCondition();
 		state = OpExecState.EXECUTING;
 		this.kernel = kernel;
 		alreadyNotified = false;
@@ -98,8 +105,6 @@ public class OpExecutionFrame {
 		this.aid = aid;
 		ncount = 0;
 		sourceId = null;
-		lock = new ReentrantLock();
-		opSignaled = lock.newCondition();
 		state = OpExecState.EXECUTING;
 		this.kernel = kernel;
 		alreadyNotified = false;
@@ -131,6 +136,35 @@ public class OpExecutionFrame {
 	
 	public void setCompletionNotified(){
 		alreadyNotified = true;
+		releaseAdmission();
+	}
+
+	void setPriority(OpPriority priority){
+		this.priority = priority;
+	}
+
+	OpPriority getPriority(){
+		return priority;
+	}
+
+	void setReadOnly(boolean readOnly){
+		this.readOnly = readOnly;
+	}
+
+	boolean isReadOnly(){
+		return readOnly;
+	}
+
+	void setAdmission(OpAdmission admission){
+		this.admission = admission;
+	}
+
+	/* the op is no more in flight */
+	synchronized void releaseAdmission(){
+		if (admission != null){
+			admission.release(userId);
+			admission = null;
+		}
 	}
 	
 	public boolean completionNotified(){
@@ -183,12 +217,55 @@ public class OpExecutionFrame {
 	public Thread getServingThread(){
 		return servingThread;
 	}
+
+	void setOwnedMailbox(ArtifactMailbox mailbox){
+		ownedMailbox = mailbox;
+	}
+
+	/**
+	 * Called by the artifact when the op suspends, so that
+	 * the other frames of the artifact can be served meanwhile.
+	 */
+	void releaseMailbox(){
+		if (ownedMailbox != null){
+			ArtifactMailbox mailbox = ownedMailbox;
+			ownedMailbox = null;
+			mailbox.release();
+		}
+	}
+
+	ArtifactMailbox getOwnedMailbox(){
+		return ownedMailbox;
+	}
+
+	void setSuspended(){
+		suspended = true;
+	}
+
+	/**
+	 * @return true if the op was suspended at least once waiting for its guard
+	 */
+	boolean wasSuspended(){
+		return suspended;
+	}
+
+	/**
+	 * Called by the mailbox when the frame has been served.
+	 * 
+	 * @return true if the frame was still owning the mailbox
+	 */
+	boolean clearOwnedMailbox(){
+		boolean owned = ownedMailbox != null;
+		ownedMailbox = null;
+		return owned;
+	}
 			
 	/**
 	 * Called by artifact to notify results.
 	 * @return
 	 */
 	public void notifyOpCompletion() {
+		releaseAdmission();
 		if (actionId != -1){
 			kernel.notifyActionCompleted(eventListener, actionId, aid, op, userId);	
 		}
@@ -198,6 +275,7 @@ public class OpExecutionFrame {
 	 * Called by the artifact to notify op failure
 	 */
 	public void notifyOpFailed() {
+		releaseAdmission();
 		if (actionId != -1){
 			kernel.notifyActionFailed(eventListener, aid, actionId, op, failureMsg, failureReason);
 		}
@@ -207,6 +285,7 @@ public class OpExecutionFrame {
 	 * Called by the artifact to notify op failure
 	 */
 	public void notifyOpFailed(String failureMsg, Tuple failureReason) {
+		releaseAdmission();
 		if (actionId != -1){
 			kernel.notifyActionFailed(eventListener, aid, actionId, op, failureMsg, failureReason);
 		}
@@ -214,37 +293,40 @@ public class OpExecutionFrame {
 	
 	//
 	
-	public int synchLinkingArtifactOk() {
-		lock.lock();
-		try {
-			if (ncount<0){
-				// this is the case in which the linking artifact tries
-				// to get the synch when a timeout occurred
-				return ncount;
-			}
-			ncount++;
-			if (ncount<2){
-				try {
-					opSignaled.await(timeout,java.util.concurrent.TimeUnit.MILLISECONDS);
-					// wait(timeout);
-					if (ncount<0){
-						return ncount;
-					} else if (ncount<2){
-						// timeout
-						ncount = -1;
-					}
-				} catch (Exception ex){
-					// interruption
-					ncount = -3;
+	/*
+	 * Synchronization between the linking and the linked artifact, using
+	 * the monitor of the frame: no sync state is allocated for the frames
+	 * of the ops that are not linked, i.e. almost all
+	 */
+	public synchronized int synchLinkingArtifactOk() {
+		if (ncount<0){
+			// this is the case in which the linking artifact tries
+			// to get the synch when a timeout occurred
+			return ncount;
+		}
+		ncount++;
+		if (ncount<2){
+			try {
+				long deadline = System.nanoTime() + timeout * 1000000L;
+				long dt = timeout;
+				while (ncount >= 0 && ncount < 2 && dt > 0){
+					wait(dt);
+					dt = (deadline - System.nanoTime()) / 1000000L;
+				}
+				if (ncount<0){
+					return ncount;
+				} else if (ncount<2){
+					// timeout
+					ncount = -1;
 				}
-				return ncount;
-			} else {
-				opSignaled.signalAll();
-				//notifyAll();
-				return 2;
+			} catch (InterruptedException ex){
+				// interruption
+				ncount = -3;
 			}
-		} finally {
-			lock.unlock();
+			return ncount;
+		} else {
+			notifyAll();
+			return 2;
 		}
 	}
 
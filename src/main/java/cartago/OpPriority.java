@@ -0,0 +1,56 @@
+/**
+ * CArtAgO - DISI, University of Bologna
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package cartago;
+
+/**
+ * Priority class of an operation.
+ * 
+ * Frames of different classes are served using a weighted round robin:
+ * in each round a class is served at most as many times as its weight,
+ * so lower classes are slowed down but never starved.
+ * 
+ * @author aricci
+ *
+ */
+public enum OpPriority {
+	HIGH(8), NORMAL(4), LOW(1), 
+	/** the default priority of the artifact, as specified in ARTIFACT_INFO */
+	DEFAULT(0);
+	
+	static final int NCLASSES = 3;
+	
+	/* values() copies the array at each call */
+	private static final OpPriority[] CLASSES = { HIGH, NORMAL, LOW };
+	
+	private int weight;
+	
+	private OpPriority(int weight){
+		this.weight = weight;
+	}
+	
+	public int getWeight(){
+		return weight;
+	}
+	
+	/**
+	 * @return the priority class with the given ordinal
+	 */
+	static OpPriority forClass(int ordinal){
+		return CLASSES[ordinal];
+	}
+}
@@ -0,0 +1,148 @@
+/**
+ * CArtAgO - DISI, University of Bologna
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package cartago;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Index keeping track of the artifact selected for an operation
+ * requested by an agent without specifying the artifact.
+ *
+ * Entries are filled when an operation is routed for the first time
+ * and invalidated when the set of artifacts providing the operation
+ * changes (artifacts created or disposed, ops registered) or when the
+ * agent starts/stops observing some artifact. Routes computed 
+ * concurrently to an invalidation are discarded, using a version
+ * number incremented at each invalidation. Routes are indexed by
+ * the code of the op signature (see OpCodes).
+ *
+ * @author aricci
+ *
+ */
+class OpRoutingIndex {
+
+	/* op code -> agent -> artifact; maps are created once for each code */
+	private volatile AtomicReferenceArray<ConcurrentHashMap<AgentId, ArtifactDescriptor>> routes;
+	private AtomicLong version;
+
+	OpRoutingIndex(){
+		routes = new AtomicReferenceArray<ConcurrentHashMap<AgentId, ArtifactDescriptor>>(64);
+		version = new AtomicLong(0);
+	}
+
+	/**
+	 * To be read before computing a route to be stored.
+	 */
+	long getVersion(){
+		return version.get();
+	}
+
+	/**
+	 * Get the artifact selected for an op requested by an agent.
+	 *
+	 * @param code op code, as resolved by the Op
+	 * @param agentId agent
+	 * @return the artifact or null if not available
+	 */
+	ArtifactDescriptor get(int code, AgentId agentId){
+		AtomicReferenceArray<ConcurrentHashMap<AgentId, ArtifactDescriptor>> table = routes;
+		ConcurrentHashMap<AgentId, ArtifactDescriptor> map = code < table.length() ? table.get(code) : null;
+		return map != null ? map.get(agentId) : null;
+	}
+
+	/**
+	 * Store a route, unless some invalidation happened since it was computed.
+	 *
+	 * @param code op code
+	 * @param agentId agent
+	 * @param des selected artifact
+	 * @param computedAt version read before computing the route
+	 */
+	void put(int code, AgentId agentId, ArtifactDescriptor des, long computedAt){
+		if (code == OpCodes.NO_CODE){
+			return;
+		}
+		ConcurrentHashMap<AgentId, ArtifactDescriptor> map = getRoutes(code);
+		map.put(agentId, des);
+		if (version.get() != computedAt){
+			map.remove(agentId, des);
+		}
+	}
+
+	private ConcurrentHashMap<AgentId, ArtifactDescriptor> getRoutes(int code){
+		AtomicReferenceArray<ConcurrentHashMap<AgentId, ArtifactDescriptor>> table = routes;
+		ConcurrentHashMap<AgentId, ArtifactDescriptor> map = code < table.length() ? table.get(code) : null;
+		if (map != null){
+			return map;
+		}
+		synchronized (this){
+			table = routes;
+			if (code >= table.length()){
+				AtomicReferenceArray<ConcurrentHashMap<AgentId, ArtifactDescriptor>> bigger = 
+						new AtomicReferenceArray<ConcurrentHashMap<AgentId, ArtifactDescriptor>>(Math.max(code + 1, table.length() * 2));
+				for (int i = 0; i < table.length(); i++){
+					bigger.set(i, table.get(i));
+				}
+				routes = table = bigger;
+			}
+			map = table.get(code);
+			if (map == null){
+				map = new ConcurrentHashMap<AgentId, ArtifactDescriptor>();
+				table.set(code, map);
+			}
+			return map;
+		}
+	}
+
+	/**
+	 * Invalidate the routes of an operation, for any arity
+	 * (var args ops can match any of them).
+	 *
+	 * @param opKey op key of the op registered or removed
+	 */
+	void invalidateOp(String opKey){
+		int index = opKey.lastIndexOf('/');
+		String name = index >= 0 ? opKey.substring(0, index) : opKey;
+		version.incrementAndGet();
+		AtomicReferenceArray<ConcurrentHashMap<AgentId, ArtifactDescriptor>> table = routes;
+		for (int code: OpCodes.getCodes(name)){
+			ConcurrentHashMap<AgentId, ArtifactDescriptor> map = code < table.length() ? table.get(code) : null;
+			if (map != null){
+				map.clear();
+			}
+		}
+	}
+
+	/**
+	 * Invalidate the routes of an agent, e.g. when it starts or stops observing an artifact.
+	 *
+	 * @param agentId
+	 */
+	void invalidateAgent(AgentId agentId){
+		version.incrementAndGet();
+		AtomicReferenceArray<ConcurrentHashMap<AgentId, ArtifactDescriptor>> table = routes;
+		for (int i = 0; i < table.length(); i++){
+			ConcurrentHashMap<AgentId, ArtifactDescriptor> map = table.get(i);
+			if (map != null){
+				map.remove(agentId);
+			}
+		}
+	}
+}
@@ -0,0 +1,90 @@
+/**
+ * CArtAgO - DISI, University of Bologna
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package cartago;
+
+import java.util.Collection;
+
+/**
+ * Op descriptors of an artifact indexed by the code of their signature.
+ *
+ * Codes are global to the process, so they are mapped to the slots of
+ * a small open addressing table, sized by the number of ops of the
+ * artifact and not by the number of codes assigned so far.
+ *
+ * Immutable: rebuilt when the ops of the artifact change.
+ *
+ * @author aricci
+ *
+ */
+class OpTable {
+
+	static final OpTable EMPTY = new OpTable(new int[1], new OpDescriptor[1]);
+
+	/* NO_CODE marks the free slots */
+	private final int[] codes;
+	private final OpDescriptor[] ops;
+	private final int mask;
+
+	private OpTable(int[] codes, OpDescriptor[] ops) {
+		this.codes = codes;
+		this.ops = ops;
+		mask = codes.length - 1;
+	}
+
+	/**
+	 * Build the table of a set of op descriptors.
+	 */
+	static OpTable build(Collection<OpDescriptor> descs) {
+		/* at most half full, so that probe sequences stay short */
+		int size = Integer.highestOneBit(Math.max(1, descs.size()) * 2 - 1) << 1;
+		int[] codes = new int[size];
+		OpDescriptor[] ops = new OpDescriptor[size];
+		int mask = size - 1;
+		for (OpDescriptor op : descs) {
+			int code = op.getCode();
+			int slot = code & mask;
+			while (codes[slot] != OpCodes.NO_CODE && codes[slot] != code) {
+				slot = (slot + 1) & mask;
+			}
+			codes[slot] = code;
+			ops[slot] = op;
+		}
+		return new OpTable(codes, ops);
+	}
+
+	/**
+	 * Get the descriptor of the op with a signature code.
+	 *
+	 * @return the descriptor, null if not found
+	 */
+	OpDescriptor get(int code) {
+		if (code == OpCodes.NO_CODE) {
+			return null;
+		}
+		int slot = code & mask;
+		int c = codes[slot];
+		while (c != OpCodes.NO_CODE) {
+			if (c == code) {
+				return ops[slot];
+			}
+			slot = (slot + 1) & mask;
+			c = codes[slot];
+		}
+		return null;
+	}
+}
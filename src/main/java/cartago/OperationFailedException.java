@@ -20,10 +20,16 @@ package cartago;
 /**
  * Exception representing an operation failure
  * 
+ * The exception is used only to terminate the operation (the failure
+ * is recorded in the frame of the operation), so the stack trace
+ * is not filled in.
+ * 
  * @author aricci
  *
  */
 public class OperationFailedException extends RuntimeException {
 
-	public OperationFailedException(){}
+	public OperationFailedException(){
+		super(null, null, false, false);
+	}
 }
@@ -0,0 +1,67 @@
+/**
+ * CArtAgO - DISI, University of Bologna
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package cartago;
+
+import java.util.Collection;
+
+/**
+ * Weighted round robin selection among queues of the 
+ * different priority classes, indexed by class ordinal.
+ * 
+ * Not thread safe: to be used by the owner of the queues or under their lock.
+ * 
+ * @author aricci
+ *
+ */
+class PrioritySelector {
+
+	private static final OpPriority[] CLASSES = { OpPriority.HIGH, OpPriority.NORMAL, OpPriority.LOW };
+
+	private int[] credits;
+	
+	PrioritySelector(){
+		credits = new int[OpPriority.NCLASSES];
+		refill();
+	}
+	
+	/**
+	 * Select the queue to serve.
+	 * 
+	 * @param queues queues, one for each priority class
+	 * @return index of the queue, -1 if all queues are empty
+	 */
+	int select(Collection<?>[] queues){
+		for (int round = 0; round < 2; round++){
+			for (int i = 0; i < queues.length; i++){
+				if (credits[i] > 0 && !queues[i].isEmpty()){
+					credits[i]--;
+					return i;
+				}
+			}
+			/* no class with credits left has something to serve: new round */
+			refill();
+		}
+		return -1;
+	}
+	
+	private void refill(){
+		for (int i = 0; i < credits.length; i++){
+			credits[i] = CLASSES[i].getWeight();
+		}
+	}
+}
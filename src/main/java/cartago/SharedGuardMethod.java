@@ -0,0 +1,72 @@
+/**
+ * CArtAgO - DISI, University of Bologna
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package cartago;
+import java.lang.invoke.*;
+import java.lang.reflect.*;
+
+/**
+ * Guard based on an artifact class method, shared 
+ * by the artifacts of the class 
+ * 
+ * Called through a method handle as for operations (see SharedOpMethod).
+ *
+ * @author aricci
+ *
+ */
+class SharedGuardMethod implements ISharedArtifactGuard {
+
+	private Method method;
+	/* (Artifact, Object[])boolean, null if reflection is used */
+	private MethodHandle invoker;
+	private String[] dependencies;
+	
+	SharedGuardMethod(Method method){
+		this.method = method;
+		method.setAccessible(true);
+		invoker = SharedOpMethod.getInvoker(method, boolean.class);
+		GUARD g = method.getAnnotation(GUARD.class);
+		if (g != null && g.dependsOn().length > 0){
+			dependencies = g.dependsOn();
+		}
+	}
+	
+	public boolean eval(Artifact artifact, Object[] actualParams) throws Exception {
+		if (invoker == null) {
+			return (Boolean) method.invoke(artifact, actualParams);
+		}
+		try {
+			return (boolean) invoker.invokeExact(artifact, actualParams);
+		} catch (InvocationTargetException ex) {
+			throw ex;
+		} catch (Throwable ex) {
+			throw SharedOpMethod.argumentMismatch(ex);
+		}
+	}
+
+	public int getNumParameters(){
+		return method.getParameterCount();
+	}
+
+	public String getName(){
+		return method.getName();
+	}
+
+	public String[] getDependencies(){
+		return dependencies;
+	}
+}
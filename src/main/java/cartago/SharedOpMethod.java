@@ -0,0 +1,128 @@
+/**
+ * CArtAgO - DISI, University of Bologna
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package cartago;
+import java.lang.invoke.*;
+import java.lang.reflect.*;
+
+/**
+ * Operation based on an artifact class method, shared 
+ * by the artifacts of the class 
+ * 
+ * The method is called through a method handle adapted to take the
+ * artifact and the array of the actual params, falling back to 
+ * reflection if the handle cannot be created. As for Method.invoke, 
+ * an IllegalArgumentException is raised for wrong arguments and the 
+ * exceptions raised by the method are wrapped in an InvocationTargetException.
+ * 
+ * @author aricci
+ *
+ */
+class SharedOpMethod implements ISharedArtifactOp {
+
+	private static final MethodHandle WRAP_EXCEPTION;
+	static {
+		try {
+			WRAP_EXCEPTION = MethodHandles.lookup().findStatic(SharedOpMethod.class, "wrapException", 
+					MethodType.methodType(Object.class, Throwable.class));
+		} catch (ReflectiveOperationException ex) {
+			throw new ExceptionInInitializerError(ex);
+		}
+	}
+
+	private Method method;
+	/* (Artifact, Object[])void, null if reflection is used */
+	private MethodHandle invoker;
+	
+	SharedOpMethod(Method method){
+		this.method = method;
+		method.setAccessible(true);
+		invoker = getInvoker(method, void.class);
+	}
+	
+	public void exec(Artifact artifact, Object[] actualParams) throws Exception {
+		if (invoker == null) {
+			method.invoke(artifact, actualParams);
+			return;
+		}
+		try {
+			invoker.invokeExact(artifact, actualParams);
+		} catch (InvocationTargetException ex) {
+			throw ex;
+		} catch (Throwable ex) {
+			throw argumentMismatch(ex);
+		}
+	}
+
+	public int getNumParameters(){
+		return method.getParameterCount();
+	}
+
+	public String getName(){
+		return method.getName();
+	}
+	
+	public boolean isVarArgs(){
+		return method.isVarArgs();
+	}
+
+	Method getMethod(){
+		return method;
+	}
+
+	/**
+	 * Create the handle calling a method of an artifact class, given the 
+	 * artifact and the array of the actual params.
+	 * 
+	 * @param method the method
+	 * @param returnType return type of the handle
+	 * @return the handle, null if it cannot be created
+	 */
+	static MethodHandle getInvoker(Method method, Class<?> returnType) {
+		try {
+			MethodHandle target = MethodHandles.privateLookupIn(method.getDeclaringClass(), MethodHandles.lookup())
+					.unreflect(method).asFixedArity();
+			/* exceptions of the method are wrapped, so that they are not taken for argument mismatches */
+			MethodHandle handler = MethodHandles.dropArguments(
+					WRAP_EXCEPTION.asType(MethodType.methodType(target.type().returnType(), Throwable.class)),
+					1, target.type().parameterList());
+			return MethodHandles.catchException(target, Throwable.class, handler)
+					.asSpreader(Object[].class, method.getParameterCount())
+					.asType(MethodType.methodType(returnType, Artifact.class, Object[].class));
+		} catch (ReflectiveOperationException | RuntimeException ex) {
+			return null;
+		}
+	}
+
+	/*
+	 * Failures of the handle adapting the args: the same raised by Method.invoke
+	 */
+	static Exception argumentMismatch(Throwable ex) {
+		if (ex instanceof ClassCastException || ex instanceof NullPointerException || 
+				ex instanceof IllegalArgumentException || ex instanceof WrongMethodTypeException) {
+			return new IllegalArgumentException("argument type mismatch", ex);
+		} else if (ex instanceof Error) {
+			throw (Error) ex;
+		} else {
+			return (Exception) ex;
+		}
+	}
+
+	private static Object wrapException(Throwable ex) throws InvocationTargetException {
+		throw new InvocationTargetException(ex);
+	}
+}
@@ -0,0 +1,257 @@
+/**
+ * CArtAgO - DISI, University of Bologna
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package cartago;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.LongSupplier;
+
+/**
+ * Hierarchical timer wheel used by the kernel to schedule timeouts.
+ *
+ * A single thread advances the wheel, one tick at a time; each level has
+ * 64 slots, each slot of a level spanning the whole lower level. Timers
+ * are cascaded to the lower levels as time passes and the expired tasks
+ * are executed by the wheel thread, so they must be short (typically
+ * putting a frame in an artifact mailbox).
+ *
+ * @author aricci
+ *
+ */
+class TimerWheel {
+
+	private static final int SLOT_BITS = 6;
+	private static final int NSLOTS = 1 << SLOT_BITS;
+	private static final int SLOT_MASK = NSLOTS - 1;
+	private static final int NLEVELS = 5;
+	private static final long MAX_DELTA = (1L << (SLOT_BITS * NLEVELS)) - 1;
+
+	private final long tickNanos;
+	private final LongSupplier clock;
+	private final long startTime;
+	private final Timeout[][] levels;
+	private final ConcurrentLinkedQueue<Timeout> pending;
+	private Thread worker;
+
+	/* accessed by the thread advancing the wheel only */
+	private long currentTick;
+	private int nTimers;
+
+	private volatile boolean idle;
+	private volatile boolean stopped;
+
+	/**
+	 * Timer scheduled on the wheel
+	 */
+	static class Timeout {
+
+		private final Runnable task;
+		private final long deadline;
+		private volatile boolean cancelled;
+		private Timeout next;
+
+		Timeout(Runnable task, long deadline){
+			this.task = task;
+			this.deadline = deadline;
+		}
+
+		/**
+		 * Cancel the timer, if not expired yet.
+		 */
+		void cancel(){
+			cancelled = true;
+		}
+
+		boolean isCancelled(){
+			return cancelled;
+		}
+	}
+
+	TimerWheel(String name, long tickMillis){
+		this(tickMillis, System::nanoTime);
+		worker = new Thread(this::run, name);
+		worker.setDaemon(true);
+		worker.start();
+	}
+
+	/*
+	 * Wheel with no thread, advanced by calling advance
+	 */
+	TimerWheel(long tickMillis, LongSupplier clock){
+		tickNanos = Math.max(1, tickMillis) * 1000000L;
+		this.clock = clock;
+		startTime = clock.getAsLong();
+		levels = new Timeout[NLEVELS][NSLOTS];
+		pending = new ConcurrentLinkedQueue<Timeout>();
+		currentTick = 0;
+		nTimers = 0;
+	}
+
+	/**
+	 * Schedule a task to be executed after some time.
+	 *
+	 * @param task task to execute
+	 * @param delayMillis delay in milliseconds
+	 * @return the timer, that can be cancelled
+	 */
+	Timeout schedule(Runnable task, long delayMillis){
+		Timeout t = new Timeout(task, clock.getAsLong() + Math.max(0, delayMillis) * 1000000L);
+		pending.add(t);
+		if (idle){
+			LockSupport.unpark(worker);
+		}
+		return t;
+	}
+
+	void shutdown(){
+		stopped = true;
+		if (worker != null){
+			LockSupport.unpark(worker);
+		}
+	}
+
+	private void run(){
+		while (!stopped){
+			long dt = advance();
+			if (dt != 0){
+				idle = true;
+				if (pending.isEmpty() && !stopped){
+					if (dt < 0){
+						LockSupport.park(this);
+					} else {
+						LockSupport.parkNanos(this, dt);
+					}
+				}
+				idle = false;
+			}
+		}
+	}
+
+	/**
+	 * Advance the wheel up to the current time, executing the expired tasks.
+	 *
+	 * @return nanoseconds to wait before something may happen on the wheel,
+	 * -1 if there are no timers
+	 */
+	long advance(){
+		long target = (clock.getAsLong() - startTime) / tickNanos;
+		if (nTimers == 0){
+			/* nothing to cascade or expire: jump forward */
+			currentTick = Math.max(currentTick, target);
+		}
+		transferPending();
+		while (currentTick < target && !stopped){
+			tick();
+		}
+		if (nTimers == 0){
+			return -1;
+		}
+		long wakeUp = startTime + (currentTick + ticksToNextEvent()) * tickNanos;
+		return Math.max(0, wakeUp - clock.getAsLong());
+	}
+
+	long getCurrentTick(){
+		return currentTick;
+	}
+
+	int getNumTimers(){
+		return nTimers;
+	}
+
+	private void transferPending(){
+		Timeout t = pending.poll();
+		while (t != null){
+			if (!t.isCancelled()){
+				insert(t, 1);
+				nTimers++;
+			}
+			t = pending.poll();
+		}
+	}
+
+	/* minDelta is 0 when cascading, since the current slot is still to be expired */
+	private void insert(Timeout t, long minDelta){
+		long deadlineTick = (t.deadline - startTime + tickNanos - 1) / tickNanos;
+		long delta = deadlineTick - currentTick;
+		if (delta < minDelta){
+			delta = minDelta;
+		} else if (delta > MAX_DELTA){
+			/* reinserted when cascaded from the top level */
+			delta = MAX_DELTA;
+		}
+		long when = currentTick + delta;
+		int level = 0;
+		while (level < NLEVELS - 1 && delta >= (1L << (SLOT_BITS * (level + 1)))){
+			level++;
+		}
+		int slot = (int) ((when >>> (SLOT_BITS * level)) & SLOT_MASK);
+		t.next = levels[level][slot];
+		levels[level][slot] = t;
+	}
+
+	private void tick(){
+		currentTick++;
+		for (int level = 1; level < NLEVELS; level++){
+			if ((currentTick & ((1L << (SLOT_BITS * level)) - 1)) != 0){
+				break;
+			}
+			cascade(level, (int) ((currentTick >>> (SLOT_BITS * level)) & SLOT_MASK));
+		}
+		int slot = (int) (currentTick & SLOT_MASK);
+		Timeout t = levels[0][slot];
+		levels[0][slot] = null;
+		while (t != null){
+			Timeout next = t.next;
+			t.next = null;
+			nTimers--;
+			if (!t.isCancelled()){
+				try {
+					t.task.run();
+				} catch (Throwable ex){
+					ex.printStackTrace();
+				}
+			}
+			t = next;
+		}
+	}
+
+	private void cascade(int level, int slot){
+		Timeout t = levels[level][slot];
+		levels[level][slot] = null;
+		while (t != null){
+			Timeout next = t.next;
+			if (t.isCancelled()){
+				nTimers--;
+			} else {
+				insert(t, 0);
+			}
+			t = next;
+		}
+	}
+
+	/* number of ticks to wait before something may happen on the wheel */
+	private long ticksToNextEvent(){
+		long boundary = NSLOTS - (currentTick & SLOT_MASK);
+		for (long i = 1; i < boundary; i++){
+			if (levels[0][(int) ((currentTick + i) & SLOT_MASK)] != null){
+				return i;
+			}
+		}
+		return boundary;
+	}
+}
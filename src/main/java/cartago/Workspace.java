@@ -33,9 +33,12 @@ import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 import java.util.UUID;
-import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import cartago.events.ActionFailedEvent;
 import cartago.events.ActionSucceededEvent;
 import cartago.events.ArtifactObsEvent;
@@ -60,20 +63,68 @@ public class Workspace {
 		
 	// private static final int NCONTROLLERS_DEFAULT = 20;
 
+	/**
+	 * How operation frames are executed: by the pool of environment
+	 * controllers or by a virtual thread for each served mailbox (JDK 21+)
+	 */
+	public enum ExecMode { CONTROLLERS, VIRTUAL_THREADS };
+
+	/**
+	 * What to do with an artifact having operations to be served when all
+	 * the controllers are busy and the pool reached its max size: keeping
+	 * the operations queued or failing them
+	 */
+	public enum RejectionPolicy { QUEUE, FAIL };
+
+	/**
+	 * How the events generated by the artifacts are delivered to the observers:
+	 * inline by the thread executing the op (default) or asynchronously, 
+	 * through a bounded buffer for each observer
+	 */
+	public enum EventDelivery { SYNC, ASYNC };
+
+	/**
+	 * What to do with a new event when the buffer of an observer is full:
+	 * dropping the oldest event, dropping the new one or waiting for room
+	 */
+	public enum OverflowPolicy { DROP_OLDEST, DROP_NEWEST, BLOCK };
+
+	private static final int MAX_CONTROLLERS_DEFAULT = 1024;
+	private static final long CONTROLLER_KEEPALIVE_DEFAULT = 60000;
+	private static final int OBSERVER_BUFFER_SIZE_DEFAULT = 1024;
+
 	// private java.util.concurrent.atomic.AtomicInteger artifactIds;
 	private int ctxIds;
 
 	private HashMap<String,AgentBody> joinedAgents;
 
-	private HashMap<String,ArtifactDescriptor> artifactMap;
-	private HashMap<String,List<ArtifactDescriptor>> opMap;
+	/* 
+	 * artifact registry: reads never block, mutations (make, dispose)
+	 * are serialized by synchronizing on the map 
+	 */
+	private ConcurrentHashMap<String,ArtifactDescriptor> artifactMap;
+	/* op code -> artifacts providing the op */
+	private HashMap<Integer,List<ArtifactDescriptor>> opMap;
+	/* artifact selected for ops requested without specifying the artifact */
+	private OpRoutingIndex routingIndex;
+	/* quota of ops in flight for each agent */
+	private OpAdmission admission;
 
 	private HashMap<String,Manual> artManuals;
 
-	private ArrayList<EnvironmentController> controllers;
-	private int nBusyControllers;
+	private ControllerPool controllers;
+
+	/* delivery of the events to the observers */
+	private volatile EventDelivery eventDelivery;
+	private volatile int observerBufferSize;
+	private volatile OverflowPolicy observerOverflowPolicy;
+	private AtomicLong nDroppedEvents;
 
-	private ArrayBlockingQueue<OpExecutionFrame> opTodo;
+	/* not null when frames are executed by virtual threads */
+	private volatile ExecutorService virtualThreadExecutor;
+
+	/* timer service, created on first use */
+	private TimerWheel timerWheel;
 	private AgentBody wspManager;
 	
 	private ICartagoLoggerManager logManager;
@@ -115,10 +166,16 @@ public class Workspace {
 		eventRegistry = new EventRegistry();
 
 		joinedAgents = new HashMap<String,AgentBody>();	
-		artifactMap = new HashMap<String,ArtifactDescriptor>();
-		opMap = new HashMap<String,List<ArtifactDescriptor>>();
+		artifactMap = new ConcurrentHashMap<String,ArtifactDescriptor>();
+		opMap = new HashMap<Integer,List<ArtifactDescriptor>>();
+		routingIndex = new OpRoutingIndex();
+		admission = new OpAdmission();
 		artManuals = new HashMap<String,Manual>();
-		opTodo = new ArrayBlockingQueue<OpExecutionFrame>(100);		
+		controllers = new ControllerPool(this, Runtime.getRuntime().availableProcessors(), MAX_CONTROLLERS_DEFAULT, CONTROLLER_KEEPALIVE_DEFAULT);
+		eventDelivery = EventDelivery.SYNC;
+		observerBufferSize = OBSERVER_BUFFER_SIZE_DEFAULT;
+		observerOverflowPolicy = OverflowPolicy.DROP_OLDEST;
+		nDroppedEvents = new AtomicLong(0);
 		// artifactIds = new java.util.concurrent.atomic.AtomicInteger(0);
 		
 		artifactFactories = new LinkedList<ArtifactFactory>();
@@ -136,14 +193,7 @@ public class Workspace {
 	public void init() {
 		wspManager = new AgentBody(new AgentId("workspace-manager", UUID.randomUUID().toString(), ctxIds++, "WorkspaceManager", getId()),null, this,null);
 			
-		nBusyControllers = 0;
-		controllers = new ArrayList<EnvironmentController>();
-		int nInitialControllers = Runtime.getRuntime().availableProcessors();
-		for (int i = 0; i < nInitialControllers; i++){				
-			EnvironmentController controller = new EnvironmentController(this,opTodo);
-			controllers.add(controller);
-			controller.start();
-		}
+		controllers.start();
 
 		// creating the basic set of artifacts
 
@@ -188,13 +238,11 @@ public class Workspace {
 	 * @return
 	 */
 	public Artifact getRawArtifactReference(String artifactName) {
-		synchronized (artifactMap){
-			ArtifactDescriptor des = artifactMap.get(artifactName);
-			if (des != null) {
-				return des.getArtifact();
-			} else {
-				return null;
-			}
+		ArtifactDescriptor des = artifactMap.get(artifactName);
+		if (des != null) {
+			return des.getArtifact();
+		} else {
+			return null;
 		}
 	}
 	
@@ -300,6 +348,7 @@ public class Workspace {
 				if (body==null){
 					throw new CartagoException("User not in workspace.");
 				}
+				admission.removeAgent(userId);
 				if (body.getAgentBodyArtifact()!=null){
 					List<ArtifactObsProperty>  props = this.stopFocus(userId, body.getCallback(), body.getAgentBodyArtifact().getId());
 					notifyStopFocusCompleted(body.getCallback(), -1, null, null, body.getAgentBodyArtifact().getId(),props);
@@ -310,10 +359,8 @@ public class Workspace {
 					logManager.agentQuit(time, userId);
 				}
 			}
-			synchronized (artifactMap){
-				for (ArtifactDescriptor des: artifactMap.values()){
-					des.removeObserver(userId);
-				}
+			for (ArtifactDescriptor des: artifactMap.values()){
+				des.removeObserver(userId);
 			}
 		} else {
 			throw new CartagoException(failureMsg);
@@ -329,27 +376,32 @@ public class Workspace {
 	 */
 	public void shutdown(){
 		isShutdown = true;
-		synchronized(artifactMap){
-			//log("here2 "+info);
-			final Collection<ArtifactDescriptor> list = artifactMap.values();
-			final CountDownLatch latch = new CountDownLatch(1);
-			new Thread(){
-				public void run(){
-					for (ArtifactDescriptor des: list){
-						des.getArtifact().dispose();
-					}
-					latch.countDown();
+		//log("here2 "+info);
+		final Collection<ArtifactDescriptor> list = artifactMap.values();
+		final CountDownLatch latch = new CountDownLatch(1);
+		new Thread(){
+			public void run(){
+				for (ArtifactDescriptor des: list){
+					des.getArtifact().dispose();
 				}
-			}.start();
-			try {
-				latch.await(20, TimeUnit.SECONDS);
-			} catch (InterruptedException ex){
-				log("Disposal of artifacts not completed in 20 seconds.");
+				latch.countDown();
+			}
+		}.start();
+		try {
+			latch.await(20, TimeUnit.SECONDS);
+		} catch (InterruptedException ex){
+			log("Disposal of artifacts not completed in 20 seconds.");
+		}
+		controllers.shutdown();
+		ExecutorService exec = virtualThreadExecutor;
+		if (exec != null){
+			exec.shutdown();
+		}
+		synchronized (this){
+			if (timerWheel != null){
+				timerWheel.shutdown();
 			}
 		}
-		for (EnvironmentController c: controllers){
-			c.stopActivity();
-		}		
 	}
 	
 	HashMap<String,AgentBody> getJoinedAgents(){
@@ -414,11 +466,9 @@ public class Workspace {
 		ArtifactId id = null;
 		AbstractArtifactAdapter adapter = null;
 		ArtifactDescriptor des = null;
-		synchronized (artifactMap){
-			des = artifactMap.get(name);
-			if (des!=null){
-				throw new ArtifactAlreadyPresentException(name,this.getId().getName());
-			}
+		des = artifactMap.get(name);
+		if (des!=null){
+			throw new ArtifactAlreadyPresentException(name,this.getId().getName());
 		}
 		Artifact artifact = makeArtifact(template);
 		try {
@@ -434,7 +484,9 @@ public class Workspace {
 			ArtifactDescriptor desc = new ArtifactDescriptor(artifact, creatorId, adapter);
 
 			synchronized (artifactMap){
-				artifactMap.put(name,desc);				
+				if (artifactMap.putIfAbsent(name,desc) != null){
+					throw new ArtifactAlreadyPresentException(name,this.getId().getName());
+				}
 
 				/* Conceptual Spaces alignment */
 				var ev = eventRegistry.makeArtifactCreatedEvent(id);
@@ -466,7 +518,7 @@ public class Workspace {
 
 			} catch (Exception ex){
 				synchronized (artifactMap){
-					artifactMap.remove(name);
+					artifactMap.remove(name, desc);
 					/* Conceptual Spaces alignment */
 					var ev = eventRegistry.makeArtifactRemovedEvent(id);
 					alignConceptualSpaces(ev);
@@ -474,6 +526,9 @@ public class Workspace {
 				throw new ArtifactConfigurationFailedException(template);
 			}
 
+		} catch (ArtifactAlreadyPresentException ex){
+			/* another artifact with the same name was created meanwhile */
+			throw ex;
 		} catch (Exception ex){
 			//ex.printStackTrace();
 			throw new ArtifactConfigurationFailedException(template);
@@ -511,22 +566,29 @@ public class Workspace {
 			if (des==null){
 				throw new ArtifactNotAvailableException();
 			}
+			des.getMailbox().close();
+			des.getArtifact().failSuspendedOps();
+			List<OpDescriptor> ops = des.getAdapter().getOperations();
 			synchronized (opMap){
-				Iterator<List<ArtifactDescriptor>> it = opMap.values().iterator();
-				while (it.hasNext()){
-					List<ArtifactDescriptor> descList = it.next();
-					Iterator<ArtifactDescriptor> it2 = descList.iterator();
-					while (it2.hasNext()){
-						ArtifactDescriptor desc = it2.next();
-						if (desc.getArtifact().getId().equals(id)){
-							it2.remove();
+				for (OpDescriptor op: ops){
+					List<ArtifactDescriptor> descList = opMap.get(op.getCode());
+					if (descList != null){
+						Iterator<ArtifactDescriptor> it = descList.iterator();
+						while (it.hasNext()){
+							ArtifactDescriptor desc = it.next();
+							if (desc.getArtifact().getId().equals(id)){
+								it.remove();
+							}
+						}
+						if (descList.isEmpty()){
+							opMap.remove(op.getCode());
 						}
-					}
-					if (descList.isEmpty()){
-						it.remove();
 					}
 				}
 			}
+			for (OpDescriptor op: ops){
+				routingIndex.invalidateOp(op.getKeyId());
+			}
 			/* Conceptual Spaces alignment */
 			var ev = eventRegistry.makeArtifactRemovedEvent(id);
 			alignConceptualSpaces(ev);
@@ -547,35 +609,29 @@ public class Workspace {
 	}
 
 	public String[] getArtifactList(){
-		synchronized (artifactMap){
-			Set<Map.Entry<String,ArtifactDescriptor>> set = artifactMap.entrySet();
-			List<String> list = new LinkedList<String>();
-			for (Map.Entry<String,ArtifactDescriptor> e: set){
-				list.add(e.getKey());
-			}
-			String[] ids = new String[list.size()];
-			ids = list.toArray(ids);
-			return ids;
+		Set<Map.Entry<String,ArtifactDescriptor>> set = artifactMap.entrySet();
+		List<String> list = new LinkedList<String>();
+		for (Map.Entry<String,ArtifactDescriptor> e: set){
+			list.add(e.getKey());
 		}
+		String[] ids = new String[list.size()];
+		ids = list.toArray(ids);
+		return ids;
 	}
 
 	public ArtifactId[] getArtifactIdList(){
-		synchronized (artifactMap){
-			Set<Map.Entry<String,ArtifactDescriptor>> set = artifactMap.entrySet();
-			List<ArtifactId> list = new LinkedList<ArtifactId>();
-			for (Map.Entry<String,ArtifactDescriptor> e: set){
-				list.add(e.getValue().getArtifact().getId());
-			}
-			ArtifactId[] ids = new ArtifactId[list.size()];
-			ids = list.toArray(ids);
-			return ids;
+		Set<Map.Entry<String,ArtifactDescriptor>> set = artifactMap.entrySet();
+		List<ArtifactId> list = new LinkedList<ArtifactId>();
+		for (Map.Entry<String,ArtifactDescriptor> e: set){
+			list.add(e.getValue().getArtifact().getId());
 		}
+		ArtifactId[] ids = new ArtifactId[list.size()];
+		ids = list.toArray(ids);
+		return ids;
 	}
 
 	public boolean isArtifactPresent(String name){
-		synchronized (artifactMap){
-			return artifactMap.get(name)!=null;
-		}
+		return artifactMap.get(name)!=null;
 	}
 
 	private boolean removeArtifact(String artifactName){
@@ -619,13 +675,11 @@ public class Workspace {
 	 * @param test
 	 */
 	public ArtifactId lookupLocalArtifact(String name) throws UnknownArtifactException, ArtifactNotAvailableException{
-		synchronized (artifactMap){
-			ArtifactDescriptor des = artifactMap.get(name);
-			if (des == null){
-				throw new ArtifactNotAvailableException();
-			}
-			return des.getArtifact().getId();
+		ArtifactDescriptor des = artifactMap.get(name);
+		if (des == null){
+			throw new ArtifactNotAvailableException();
 		}
+		return des.getArtifact().getId();
 	}
 
 	public ArtifactId lookupArtifact(AgentId userId, String name) throws UnknownArtifactException, ArtifactNotAvailableException, WorkspaceNotFoundException {
@@ -637,14 +691,12 @@ public class Workspace {
 	}
 
 	public ArtifactId lookupArtifactByType(AgentId userId, String type) throws UnknownArtifactException, ArtifactNotAvailableException{
-		synchronized (artifactMap){
-			for (ArtifactDescriptor des: artifactMap.values()){
-				if (des.getArtifactType().equals(type)){
-					return des.getArtifact().getId();
-				}
+		for (ArtifactDescriptor des: artifactMap.values()){
+			if (des.getArtifactType().equals(type)){
+				return des.getArtifact().getId();
 			}
-			throw new ArtifactNotAvailableException();
 		}
+		throw new ArtifactNotAvailableException();
 	}
 
 	/* 
@@ -676,55 +728,22 @@ public class Workspace {
 		} 
 		ArtifactDescriptor des = null;
 		if (name != null){
-			synchronized(artifactMap){
-				des = artifactMap.get(name);
-				if (des == null){
-					notifyFailure(ctx, arId, actionId, op, "Artifact Not Available", new Tuple("artifact_not_available",name));
-					return;
-				}
+			des = artifactMap.get(name);
+			if (des == null){
+				notifyFailure(ctx, arId, actionId, op, "Artifact Not Available", new Tuple("artifact_not_available",name));
+				return;
 			}
 		} else {
-			ArtifactId aid = null;
-			synchronized(opMap){
-				List<ArtifactDescriptor> list = opMap.get(Artifact.getOpKey(op.getName(), op.getParamValues().length));
-				if (list == null){
-					// try with var args
-					String opsign = Artifact.getOpKey(op.getName(), -1);
-					//log("use - try with varags: "+opsign+" -- "+op);
-					list = opMap.get(opsign);
-					if (list == null){
-						notifyFailure(ctx, arId, actionId, op, "Operation Not Available", new Tuple("operation_not_available",op));
-						return;
-					}
-				}
-				// if only one artifact has that operation, no problems...
-				if (list.size() == 1){
-					des = list.get(0);
-				} else {
-					// first we check for artifacts created by the agent
-					for (ArtifactDescriptor desc: list){
-						if (desc.getAgentCreator().equals(userId)){
-							des = desc;
-							break;
-						}
-					}
-					if (des == null){
-						// then artifacts focussed by the agent
-						for (ArtifactDescriptor desc: list){
-							if (desc.isObservedBy(userId)){
-								des = desc;
-								break;
-							}
-						}
-					}
-					if (des == null){
-						des = list.get(0);
-					}
-				}
+			int code = op.getCode();
+			if (code == OpCodes.NO_CODE){
+				code = op.getVarArgsCode();
+			}
+			des = routingIndex.get(code, userId);
+			if (des == null){
+				des = routeOp(ctx, arId, actionId, userId, op, code);
 				if (des == null){
-					notifyFailure(ctx, arId, actionId, op, "Artifact Not Available", new Tuple("artifact_not_available",aid));
 					return;
-				} 
+				}
 			}
 		}
 
@@ -738,18 +757,21 @@ public class Workspace {
 		if (this.wspRuleEngine == null){
 			boolean allowed = securityManager.canDoAction(userId, aid , op);
 			if (allowed) {	
+				if (!admitOp(ctx, arId, actionId, userId, op)){
+					return;
+				}
 				OpId oid = des.getAdapter().getFreshId(op.getName(),userId);
 				OpExecutionFrame info = new OpExecutionFrame(this,oid,ctx, actionId, userId, aid,op,timeout,test);
+				info.setAdmission(admission);
 				try {
-					opTodo.put(info);
-				/*
-					return true;
-				} catch (InterruptedException ex){
-					throw new CartagoException(ex.toString());
-				*/
+					if (!des.getMailbox().add(info)){
+						info.releaseAdmission();
+						notifyFailure(ctx, arId, actionId, op, "Artifact Not Available", new Tuple("artifact_not_available",aid.getName()));
+					}
 					return;
 				} catch (Exception ex){
 					ex.printStackTrace();
+					info.releaseAdmission();
 					notifyFailure(ctx, arId, actionId, op, "Internal Failure: exec op exception.", new Tuple("internal_failure","exec_op_exception"));
 					return;
 				}
@@ -761,13 +783,21 @@ public class Workspace {
 			OpRequestInfo request = new OpRequestInfo(actionId, userId, aid, op);
 			wspRuleEngine.processActionRequest(request);
 			if (!request.isFailed()){
+				if (!admitOp(ctx, arId, actionId, userId, op)){
+					return;
+				}
 				OpId oid = des.getAdapter().getFreshId(request.getOp().getName(),userId);
 				OpExecutionFrame frame = new OpExecutionFrame(this,oid,ctx, actionId, userId, aid, request.getOp(), timeout, test);
+				frame.setAdmission(admission);
 				try {
-					opTodo.put(frame);
+					if (!des.getMailbox().add(frame)){
+						frame.releaseAdmission();
+						notifyFailure(ctx, arId, actionId, op, "Artifact Not Available", new Tuple("artifact_not_available",aid.getName()));
+					}
 					return;
 				} catch (Exception ex){
 					//ex.printStackTrace();
+					frame.releaseAdmission();
 					notifyFailure(ctx, arId, actionId, op, "Internal Failure: exec op exception.", new Tuple("internal_failure","exec_op_exception"));
 					return;
 				}
@@ -780,13 +810,11 @@ public class Workspace {
 	
 	public List<ArtifactObsProperty> focus(AgentId userId, IEventFilter filter, ICartagoCallback ctx, ArtifactId aid) throws CartagoException {
 		ArtifactDescriptor des = null;
-		synchronized(artifactMap){
-			des = artifactMap.get(aid.getName());
-			if (des==null){
-				//log("ART NOT FOUND "+aid.getName());
-				//logState();
-				throw new ArtifactNotAvailableException();
-			}
+		des = artifactMap.get(aid.getName());
+		if (des==null){
+			//log("ART NOT FOUND "+aid.getName());
+			//logState();
+			throw new ArtifactNotAvailableException();
 		}
 		try {
 			List<ArtifactObsProperty> obs = des.getAdapter().readProperties();
@@ -812,11 +840,9 @@ public class Workspace {
 	
 	public List<ArtifactObsProperty> stopFocus(AgentId userId, ICartagoCallback ctx, ArtifactId aid) throws CartagoException{
 		ArtifactDescriptor des = null;
-		synchronized(artifactMap){
-			des = artifactMap.get(aid.getName());
-			if (des==null){
-				throw new ArtifactNotAvailableException();
-			}
+		des = artifactMap.get(aid.getName());
+		if (des==null){
+			throw new ArtifactNotAvailableException();
 		}
 		des.removeObserver(userId);
 		synchronized (joinedAgents){
@@ -835,11 +861,9 @@ public class Workspace {
 
 	public void linkArtifacts(AgentId userId, ArtifactId artifactOutId, String artifactOutPort, ArtifactId artifactInId) throws CartagoException  {
 		ArtifactDescriptor des = null;
-		synchronized(artifactMap){
-			des = artifactMap.get(artifactOutId.getName());
-			if (des == null){
-				throw new ArtifactNotAvailableException();
-			}
+		des = artifactMap.get(artifactOutId.getName());
+		if (des == null){
+			throw new ArtifactNotAvailableException();
 		}
 		des.getAdapter().linkTo(artifactInId, artifactOutPort);
 		if (logManager.isLogging()){
@@ -851,69 +875,94 @@ public class Workspace {
 
 	public OpId doInternalOp(ArtifactId aid, Op op) throws InterruptedException, OpRequestTimeoutException, OperationUnavailableException, ArtifactNotAvailableException, CartagoException  {
 		ArtifactDescriptor des = null;
-		synchronized(artifactMap){
-			des = artifactMap.get(aid.getName());
+		des = artifactMap.get(aid.getName());
+		if (des!=null){
+			OpId oid = des.getAdapter().getFreshId(op.getName(),wspManager.getAgentId());
+			OpExecutionFrame info = new OpExecutionFrame(this,oid,aid,op);
+			if (!des.getMailbox().add(info)){
+				throw new ArtifactNotAvailableException();
+			}
+			return oid;
+		} else {
+			throw new ArtifactNotAvailableException();
 		}
+	}
+
+	/**
+	 * Execute an internal operation after some time, without
+	 * keeping any thread busy meanwhile.
+	 * 
+	 * @param aid artifact
+	 * @param op operation
+	 * @param delay delay in milliseconds
+	 * @return the op id
+	 */
+	public OpId doInternalOp(ArtifactId aid, Op op, long delay) throws ArtifactNotAvailableException, CartagoException {
+		ArtifactDescriptor des = null;
+		des = artifactMap.get(aid.getName());
 		if (des!=null){
 			OpId oid = des.getAdapter().getFreshId(op.getName(),wspManager.getAgentId());
 			OpExecutionFrame info = new OpExecutionFrame(this,oid,aid,op);
-			opTodo.put(info);
+			ArtifactMailbox mailbox = des.getMailbox();
+			/* if the artifact has been disposed meanwhile, the op is dropped */
+			getTimerWheel().schedule(() -> mailbox.add(info), delay);
 			return oid;
 		} else {
 			throw new ArtifactNotAvailableException();
 		}
 	}
 
+	OpRoutingIndex getRoutingIndex(){
+		return routingIndex;
+	}
+
+	synchronized TimerWheel getTimerWheel(){
+		if (timerWheel == null){
+			timerWheel = new TimerWheel("cartago-timer-"+id.getName(), 1);
+		}
+		return timerWheel;
+	}
+
 	public boolean hasOperation(ArtifactId aid, Op op) throws NoArtifactException {
 		ArtifactDescriptor des = null; 
-		synchronized (artifactMap){
-			des = artifactMap.get(aid.getName());
-			if (des == null){
-				throw new NoArtifactException(op.getName());
-			}
-			return des.getAdapter().hasOperation(op);
+		des = artifactMap.get(aid.getName());
+		if (des == null){
+			throw new NoArtifactException(op.getName());
 		}
+		return des.getAdapter().hasOperation(op);
 	}
 
 	public ArtifactId getArtifact(String name) {
 		ArtifactDescriptor des = null; 
-		synchronized (artifactMap){
-			des = artifactMap.get(name);
-			if (des != null){
-				return des.getArtifact().getId();
-			} else {
-				return null;
-			}
+		des = artifactMap.get(name);
+		if (des != null){
+			return des.getArtifact().getId();
+		} else {
+			return null;
 		}
 	}
 
 	public ArtifactDescriptor getArtifactDescriptor(String name) {
 		ArtifactDescriptor des = null; 
-		synchronized (artifactMap){
-			des = artifactMap.get(name);
-			return des;
-		}
+		des = artifactMap.get(name);
+		return des;
 	}
 
 	// Linked op
 
 	public OpId execInterArtifactOp(ICartagoCallback evListener, long callbackId, AgentId userId, ArtifactId srcId, ArtifactId targetId, Op op, long timeout, IAlignmentTest test) throws CartagoException  {
 		ArtifactDescriptor des = null;
-		synchronized(artifactMap){
-			des = artifactMap.get(targetId.getName());
-			if (des == null){
-				throw new ArtifactNotAvailableException();
-			}
+		des = artifactMap.get(targetId.getName());
+		if (des == null){
+			throw new ArtifactNotAvailableException();
 		}
 
 		OpId oid = des.getAdapter().getFreshId(op.getName(),userId);
 		OpExecutionFrame info = new OpExecutionFrame(this, oid, evListener, callbackId,  userId, targetId, op, timeout, test);
-		try {
-			opTodo.put(info);
-			return oid;
-		} catch (Exception ex){
-			throw new CartagoException("execInterArtifactOp failed: "+ex);
+		if (!des.getMailbox().add(info)){
+			throw new ArtifactNotAvailableException();
 		}
+		return oid;
 	}
 	
 	/**
@@ -952,30 +1001,94 @@ public class Workspace {
 		return wspArtifactId;
 	}
 	
+	/*
+	 * Account a new op to the agent, failing the action with reason busy
+	 * if the agent has too many ops in flight
+	 */
+	private boolean admitOp(ICartagoCallback ctx, ArtifactId arId, long actionId, AgentId userId, Op op){
+		if (admission.tryAdmit(userId)){
+			return true;
+		} else {
+			notifyFailure(ctx, arId, actionId, op, "Too many operations in progress", new Tuple("busy", admission.getMaxInFlightPerAgent()));
+			return false;
+		}
+	}
+
+	/*
+	 * Select the artifact for an op requested without specifying the artifact:
+	 * if more artifacts provide the op, artifacts created by the agent are preferred,
+	 * then artifacts observed by the agent.
+	 */
+	private ArtifactDescriptor routeOp(ICartagoCallback ctx, ArtifactId arId, long actionId, AgentId userId, Op op, int routeCode){
+		long version = routingIndex.getVersion();
+		ArtifactDescriptor des = null;
+		synchronized(opMap){
+			List<ArtifactDescriptor> list = opMap.get(op.getCode());
+			if (list == null){
+				// try with var args
+				//log("use - try with varags: "+op);
+				list = opMap.get(op.getVarArgsCode());
+				if (list == null){
+					notifyFailure(ctx, arId, actionId, op, "Operation Not Available", new Tuple("operation_not_available",op));
+					return null;
+				}
+			}
+			// if only one artifact has that operation, no problems...
+			if (list.size() == 1){
+				des = list.get(0);
+			} else {
+				// first we check for artifacts created by the agent
+				for (ArtifactDescriptor desc: list){
+					if (desc.getAgentCreator().equals(userId)){
+						des = desc;
+						break;
+					}
+				}
+				if (des == null){
+					// then artifacts focussed by the agent
+					for (ArtifactDescriptor desc: list){
+						if (desc.isObservedBy(userId)){
+							des = desc;
+							break;
+						}
+					}
+				}
+				if (des == null && !list.isEmpty()){
+					des = list.get(0);
+				}
+			}
+			if (des == null){
+				notifyFailure(ctx, arId, actionId, op, "Artifact Not Available", new Tuple("artifact_not_available",Artifact.getOpKey(op.getName(), op.getParamValues().length)));
+				return null;
+			} 
+		}
+		routingIndex.put(routeCode, userId, des, version);
+		return des;
+	}
+
 	public void registerOpInMap(OpDescriptor op, ArtifactId aid) {
 		ArtifactDescriptor desc = null; 
-		synchronized (artifactMap){
-			String name = aid.getName();
-			desc = artifactMap.get(name);
-		}
+		String name = aid.getName();
+		desc = artifactMap.get(name);
 		this.registerOpInMap(op, desc);
 	}
 	
 	private void registerOpInMap(OpDescriptor op, ArtifactDescriptor desc) {
 		synchronized (opMap){
-			List<ArtifactDescriptor> list = opMap.get(op.getKeyId());
+			List<ArtifactDescriptor> list = opMap.get(op.getCode());
 			if (list == null){
 				list = new ArrayList<ArtifactDescriptor>();
 			}	
 			list.add(desc);
-			opMap.put(op.getKeyId(), list);
+			opMap.put(op.getCode(), list);
 		}
+		routingIndex.invalidateOp(op.getKeyId());
 		
 	}	
 	
 	public void unregisterOpFromMap(OpDescriptor op, ArtifactId id) {
 		synchronized (opMap){
-			List<ArtifactDescriptor> list = opMap.get(op.getKeyId());
+			List<ArtifactDescriptor> list = opMap.get(op.getCode());
 			if (list != null){
 				Iterator<ArtifactDescriptor> it = list.iterator();
 				while (it.hasNext()){
@@ -987,6 +1100,7 @@ public class Workspace {
 				}
 			}
 		}
+		routingIndex.invalidateOp(op.getKeyId());
 	}
 	
 	/***********************************************************************************************
@@ -996,6 +1110,20 @@ public class Workspace {
 	 ***********************************************************************************************/
 	
 	
+	/**
+	 * Check if the obs events of an artifact can be consumed by someone:
+	 * its observers, the loggers, the rule engine or the CS mappings.
+	 * 
+	 * @param sourceId artifact generating the events
+	 */
+	boolean hasObsEventConsumers(ArtifactId sourceId){
+		if (wspRuleEngine != null || !csMappings.isEmpty() || logManager.isLogging()){
+			return true;
+		}
+		ArtifactDescriptor des = artifactMap.get(sourceId.getName());
+		return des != null && des.isObserved();
+	}
+
 	public void notifyObsEventToAgent(ArtifactId sourceId, AgentId target, Tuple signal, ArtifactObsProperty[] changed, ArtifactObsProperty[] added, ArtifactObsProperty[] removed){
 		try {
 			if (logManager.isLogging()){
@@ -1004,9 +1132,7 @@ public class Workspace {
 		} catch (Exception ex){}
 		ArtifactObsEvent ev = eventRegistry.makeObsEvent(sourceId, signal, changed, added, removed);
 		ArtifactDescriptor des = null;		
-		synchronized(artifactMap){
-			des = artifactMap.get(sourceId.getName());
-		}
+		des = artifactMap.get(sourceId.getName());
 		if (des!=null){
 			des.notifyObserver(target,ev);
 		}
@@ -1021,9 +1147,7 @@ public class Workspace {
 		} catch (Exception ex){}
 		ArtifactObsEvent ev = eventRegistry.makeObsEvent(sourceId, signal, changed, added, removed);
 		ArtifactDescriptor des = null;		
-		synchronized(artifactMap){
-			des = artifactMap.get(sourceId.getName());
-		}
+		des = artifactMap.get(sourceId.getName());
 		if (des!=null){
 			des.notifyObservers(ev);
 			if (wspRuleEngine!=null){ //informing the changes in observable properties to the AbstractWSPRuleEngine
@@ -1231,10 +1355,8 @@ public class Workspace {
 			}
 			ArtifactId id = makeArtifact( body.getAgentId(),name, className, new ArtifactConfig(body));
 			ArtifactDescriptor des = null;
-			synchronized (artifactMap){
-				des = artifactMap.get(name);
-				body.setBodyArtifact((AgentBodyArtifact) des.getArtifact());
-			}		
+			des = artifactMap.get(name);
+			body.setBodyArtifact((AgentBodyArtifact) des.getArtifact());
 			return id;
 		} catch (Exception ex){
 			ex.printStackTrace();
@@ -1286,22 +1408,20 @@ public class Workspace {
 				ICartagoCallback callback = body.getCallback();
 				double observingRadius = body.getAgentBodyArtifact().getObservingRadius();
 				AbstractWorkspacePoint agentPos = body.getAgentBodyArtifact().getPosition();
-				synchronized(artifactMap){
-					for (ArtifactDescriptor des: artifactMap.values()){
-						Artifact art = des.getArtifact();
-						//log(">> checking for observability of "+art.getId()+" for "+userId);
-						AbstractWorkspacePoint arPos = art.getPosition();
-						if (arPos != null){
-							double distance = topology.getDistance(agentPos, arPos);
-							if (distance < observingRadius && distance < art.getObservabilityRadius()){
-								//log(">> "+userId+" can observe "+art.getId());
-								List<ArtifactObsProperty> obs = des.getAdapter().readProperties();
-								des.addObserver(userId, null, callback);
-								obsArtifactInfoList.add(new ObservableArtifactInfo(des,obs));
-							} else {
-								/* remove the observer if present */
-								des.removeObserver(userId);
-							}
+				for (ArtifactDescriptor des: artifactMap.values()){
+					Artifact art = des.getArtifact();
+					//log(">> checking for observability of "+art.getId()+" for "+userId);
+					AbstractWorkspacePoint arPos = art.getPosition();
+					if (arPos != null){
+						double distance = topology.getDistance(agentPos, arPos);
+						if (distance < observingRadius && distance < art.getObservabilityRadius()){
+							//log(">> "+userId+" can observe "+art.getId());
+							List<ArtifactObsProperty> obs = des.getAdapter().readProperties();
+							des.addObserver(userId, null, callback);
+							obsArtifactInfoList.add(new ObservableArtifactInfo(des,obs));
+						} else {
+							/* remove the observer if present */
+							des.removeObserver(userId);
 						}
 					}
 				}
@@ -1321,9 +1441,7 @@ public class Workspace {
 	public void notifyArtifactPositionOrRadiusChange(ArtifactId id) throws CartagoException {
 		if (topology!=null){
 			ArtifactDescriptor des = null;
-			synchronized (artifactMap){
-				des = artifactMap.get(id.getName());
-			}
+			des = artifactMap.get(id.getName());
 			if (des != null){
 				AbstractWorkspacePoint artifactPos = des.getArtifact().getPosition();
 				synchronized (joinedAgents){
@@ -1381,34 +1499,24 @@ public class Workspace {
 	boolean wspRuleManExecOp(ArtifactId aid, Op op) {
 		ArtifactDescriptor des = null;
 		AgentId id = wspManager.getAgentId();
-		synchronized(artifactMap){
-			des = artifactMap.get(aid.getName());
-			if (des == null){
-				return false;
-			}
+		des = artifactMap.get(aid.getName());
+		if (des == null){
+			return false;
 		}
 		OpId oid = des.getAdapter().getFreshId(op.getName(),id);
 		OpExecutionFrame info = new OpExecutionFrame(this,oid, null, -2, id, aid,op,-1,null); // The value -2 in the parameter actionId points to actions triggered by AbstractWSPRuleEngine
-		try {
-			opTodo.put(info);
-		} catch (Exception ex){
-			ex.printStackTrace();
-			return false;
-		}		
-		return true;
+		return des.getMailbox().add(info);
 	}
 
 	ArtifactObsProperty wspRuleManReadObsProperty(ArtifactId id, String propName) {
 		try {
-			synchronized (artifactMap){
-				ArtifactDescriptor des = artifactMap.get(id.getName());
-				if (des!=null) {
-					IArtifactAdapter ad = des.getAdapter();		
-					return ad.readProperty(propName);
-				} else {
-					return null;
-				}
-			}		
+			ArtifactDescriptor des = artifactMap.get(id.getName());
+			if (des!=null) {
+				IArtifactAdapter ad = des.getAdapter();		
+				return ad.readProperty(propName);
+			} else {
+				return null;
+			}
 		} catch (Exception ex){
 			return null;
 		}
@@ -1466,17 +1574,15 @@ public class Workspace {
 		if (allow) {
 			ArtifactDescriptor des = null;
 			//log("***PRE-dispatchOpExec");
-			synchronized(artifactMap){
-				des = artifactMap.get(aid.getName());
-				if (des == null){
-					try {
-						ObservePropFailedEvent ev = eventRegistry.makeObservePropFailedEvent(actionId, aid, "Artifact Not Available",new Tuple("artifact_not_available",aid)); 										
-						ctx.notifyCartagoEvent(ev);
-						return;
-					} catch (Exception ex){
-						ex.printStackTrace();
-						throw new CartagoException("focus exception.");
-					}
+			des = artifactMap.get(aid.getName());
+			if (des == null){
+				try {
+					ObservePropFailedEvent ev = eventRegistry.makeObservePropFailedEvent(actionId, aid, "Artifact Not Available",new Tuple("artifact_not_available",aid)); 										
+					ctx.notifyCartagoEvent(ev);
+					return;
+				} catch (Exception ex){
+					ex.printStackTrace();
+					throw new CartagoException("focus exception.");
 				}
 			}
 			ArtifactObsProperty prop = des.getAdapter().readProperty(propName);
@@ -1514,9 +1620,7 @@ public class Workspace {
 	/*
 	public Manual getArtifactManual(AgentId userId, ArtifactId aid) throws ArtifactNotAvailableException, CartagoException {
 		ArtifactDescriptor des = null;
-		synchronized(artifactMap){
-			des = artifactMap.get(aid);
-		}
+		des = artifactMap.get(aid);
 		if (des!=null){
 			return des.getAdapter().getManual();
 		} else {
@@ -1628,42 +1732,198 @@ public class Workspace {
 	
 	// artifact side	
 
-	private void serveOperation(OpExecutionFrame info) {		
-		ArtifactId aid = info.getTargetArtifactId();
-
-		IArtifactAdapter adapter = null;
-		ArtifactDescriptor des;
-		//log("here1 "+info);
-		synchronized(artifactMap){
-			//log("here2 "+info);
-			des = artifactMap.get(aid.getName());
-			adapter = des.getAdapter();
-			nBusyControllers++;
-			if (nBusyControllers>=controllers.size()){
-				this.addControllers(10);
+	/**
+	 * Called by a mailbox with frames to be served, to make it available to controllers
+	 * 
+	 * @param mailbox
+	 */
+	void scheduleMailbox(ArtifactMailbox mailbox) {
+		ExecutorService exec = virtualThreadExecutor;
+		if (exec != null){
+			try {
+				exec.execute(() -> {
+					try {
+						mailbox.serve();
+					} catch (Exception ex){
+						ex.printStackTrace();
+					}
+				});
+				return;
+			} catch (Exception ex){
+				// executor shut down: falling back to controllers
 			}
 		}
-		//log("here3"+info);
-		try {
-			adapter.doOperation(info);
-		} catch (Exception ex){
-			ex.printStackTrace();
-		}
-		synchronized(artifactMap){
-			nBusyControllers--;
+		controllers.execute(mailbox);
+	}
+
+	/*
+	 * Execute a task not bound to the mailbox of an artifact,
+	 * such as a read-only op running in parallel with the other readers
+	 */
+	void scheduleTask(Runnable task, OpPriority priority) {
+		ExecutorService exec = virtualThreadExecutor;
+		if (exec != null){
+			try {
+				exec.execute(task);
+				return;
+			} catch (Exception ex){
+				// executor shut down: falling back to controllers
+			}
 		}
+		controllers.execute(task, priority);
 	}
 
 	/**
 	 * Extends the set of controllers used to serve operation execution
 	 * 
+	 * The pool cannot grow beyond its max size; controllers exceeding
+	 * the min size are retired when idle.
+	 * 
 	 * @param n number of controllers to be added
 	 */
 	public void addControllers(int n){
-		for (int i=0; i<n; i++){				
-			EnvironmentController controller = new EnvironmentController(this,opTodo);
-			controllers.add(controller);
-			controller.start();
+		controllers.addControllers(n);
+	}
+
+	/**
+	 * Set the max number of operations an agent can have in progress
+	 * (including the ones waiting for a guard). Requests beyond the quota 
+	 * fail immediately with reason busy. 
+	 * 
+	 * @param max max number of ops, 0 means no limit (default)
+	 */
+	public void setMaxInFlightOpsPerAgent(int max){
+		admission.setMaxInFlightPerAgent(max);
+	}
+
+	/**
+	 * Set the bounds of the controller pool.
+	 * 
+	 * The pool grows beyond min only when there are operations to serve
+	 * and no idle controller (e.g. because they are blocked on guards).
+	 * 
+	 * @param min number of controllers always kept alive
+	 * @param max max number of controllers
+	 */
+	public void setControllerPoolBounds(int min, int max){
+		controllers.setBounds(min, max);
+	}
+
+	/**
+	 * Set how long a controller beyond the min pool size can stay idle before being retired.
+	 * 
+	 * @param ms keep-alive time in milliseconds
+	 */
+	public void setControllerKeepAliveTime(long ms){
+		controllers.setKeepAliveTime(ms);
+	}
+
+	/**
+	 * Set the policy applied when the controller pool is saturated.
+	 * 
+	 * @param policy
+	 */
+	public void setControllerRejectionPolicy(RejectionPolicy policy){
+		controllers.setRejectionPolicy(policy);
+	}
+
+	/**
+	 * Select how the events generated by the artifacts are delivered to the observers.
+	 * 
+	 * With ASYNC the thread executing an op only enqueues the events
+	 * in the buffers of the observers and then releases the artifact, so 
+	 * that a slow observer does not stall the artifact for the others.
+	 * Events are still delivered to each observer in order, but they 
+	 * can reach it after the completion of the op that generated them.
+	 * 
+	 * @param mode delivery mode
+	 */
+	public void setEventDelivery(EventDelivery mode){
+		eventDelivery = mode;
+	}
+
+	public EventDelivery getEventDelivery(){
+		return eventDelivery;
+	}
+
+	/**
+	 * Set the capacity of the buffer of each observer (async delivery).
+	 * 
+	 * It applies to the buffers created after the call, i.e. to the 
+	 * observers receiving events asynchronously for the first time.
+	 * 
+	 * @param size max number of events not delivered yet
+	 */
+	public void setObserverBufferSize(int size){
+		if (size < 1){
+			throw new IllegalArgumentException("Invalid observer buffer size: "+size);
+		}
+		observerBufferSize = size;
+	}
+
+	int getObserverBufferSize(){
+		return observerBufferSize;
+	}
+
+	/**
+	 * Set the policy applied when the buffer of an observer is full (async delivery).
+	 * 
+	 * It applies to the buffers created after the call. 
+	 * With BLOCK the thread executing the op waits for the observer 
+	 * to catch up, keeping the artifact locked.
+	 * 
+	 * @param policy
+	 */
+	public void setObserverOverflowPolicy(OverflowPolicy policy){
+		observerOverflowPolicy = policy;
+	}
+
+	OverflowPolicy getObserverOverflowPolicy(){
+		return observerOverflowPolicy;
+	}
+
+	void notifyEventsDropped(int n){
+		nDroppedEvents.addAndGet(n);
+	}
+
+	/**
+	 * Select how operation frames are executed.
+	 * 
+	 * With VIRTUAL_THREADS each served mailbox runs on a fresh virtual thread,
+	 * so that ops blocked in guards, await_time or linked ops do not keep
+	 * an OS thread busy. If the JVM does not support virtual threads, the
+	 * controllers are kept.
+	 * 
+	 * @param mode execution mode
+	 * @return the mode actually in use
+	 */
+	public synchronized ExecMode setExecMode(ExecMode mode){
+		if (mode == ExecMode.VIRTUAL_THREADS){
+			if (virtualThreadExecutor == null){
+				virtualThreadExecutor = makeVirtualThreadExecutor();
+			}
+		} else if (virtualThreadExecutor != null){
+			virtualThreadExecutor.shutdown();
+			virtualThreadExecutor = null;
+		}
+		return getExecMode();
+	}
+
+	public ExecMode getExecMode(){
+		return virtualThreadExecutor != null ? ExecMode.VIRTUAL_THREADS : ExecMode.CONTROLLERS;
+	}
+
+	/*
+	 * Virtual threads are looked up by reflection, since the kernel
+	 * is compiled for JDK 17 
+	 */
+	private static ExecutorService makeVirtualThreadExecutor(){
+		try {
+			Method m = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) m.invoke(null);
+		} catch (Exception ex){
+			// not available (JDK < 21 or preview not enabled)
+			return null;
 		}
 	}
 
@@ -1674,15 +1934,11 @@ public class Workspace {
 	// interface for CartagoControllers
 
 	private ArtifactId[] getCurrentArtifacts(){
-		synchronized(artifactMap){
-			java.util.Collection<ArtifactDescriptor> set = artifactMap.values();
-			ArtifactId[] ids = new ArtifactId[set.size()];
-			int index = 0;
-			for (ArtifactDescriptor des: set){
-				ids[index++] = des.getArtifact().getId();
-			}
-			return ids;
+		ArrayList<ArtifactId> ids = new ArrayList<ArtifactId>();
+		for (ArtifactDescriptor des: artifactMap.values()){
+			ids.add(des.getArtifact().getId());
 		}
+		return ids.toArray(new ArtifactId[ids.size()]);
 	}
 
 	
@@ -1703,15 +1959,14 @@ public class Workspace {
 		synchronized (joinedAgents){
 			AgentBody body = joinedAgents.remove(globalId);
 			if (body != null){
+				admission.removeAgent(body.getAgentId());
 				if (body.getAgentBodyArtifact()!=null){
 					try {
 						disposeArtifact(this.wspManager.getAgentId(), body.getAgentBodyArtifact().getId());
 					} catch (Exception ex){}
 				}
-				synchronized (artifactMap){
-					for (ArtifactDescriptor des: artifactMap.values()){
-						des.removeObserver(body.getAgentId());
-					}
+				for (ArtifactDescriptor des: artifactMap.values()){
+					des.removeObserver(body.getAgentId());
 				}
 				return true;
 			} else {
@@ -1720,123 +1975,102 @@ public class Workspace {
 		}
 	}
 
+	private int getNumQueuedOps(){
+		int n = 0;
+		for (ArtifactDescriptor des: artifactMap.values()){
+			n += des.getMailbox().getNumPendingFrames();
+		}
+		return n;
+	}
+
 	private ArtifactInfo getArtifactInfo(String artifactName) throws CartagoException  {
-		synchronized (artifactMap){
-			ArtifactDescriptor des = artifactMap.get(artifactName);
-			IArtifactAdapter ad = des.getAdapter();
+		ArtifactDescriptor des = artifactMap.get(artifactName);
+		IArtifactAdapter ad = des.getAdapter();
+		
+		if (des!=null) {
+			ArtifactInfo info = new ArtifactInfo( 
+					des.getAgentCreator(),
+					des.getArtifact().getId(),
+					ad.getOperations(),
+					ad.readProperties(),
+					ad.getOpInExecution(),
+					des.getObservers(),
+					des.getArtifact().getLinkedArtifacts(),
+					ad.getManual());
 			
-			if (des!=null) {
-				ArtifactInfo info = new ArtifactInfo( 
-						des.getAgentCreator(),
-						des.getArtifact().getId(),
-						ad.getOperations(),
-						ad.readProperties(),
-						ad.getOpInExecution(),
-						des.getObservers(),
-						des.getArtifact().getLinkedArtifacts(),
-						ad.getManual());
-				
-				return info;
-			} else {
-				throw new CartagoException();
-			}
+			return info;
+		} else {
+			throw new CartagoException();
 		}
 	}
 	
 
-	/**
-	 * Environment Controller to serve operation execution
-	 * requested by agents
-	 * 
-	 * @author aricci
-	 *
-	 */
-	class EnvironmentController extends Thread {
+	class CartagoController implements ICartagoController {
 
-		private ArrayBlockingQueue<OpExecutionFrame> opBuffer;
 		private Workspace env;
-		private boolean stopped;
-		private int nfailures;
 
-		public EnvironmentController(Workspace env, ArrayBlockingQueue<OpExecutionFrame> opBuffer){
+		public CartagoController(Workspace env){
 			this.env = env;
-			this.opBuffer = opBuffer;
-			nfailures = 0;
 		}
 
-		public synchronized void stopActivity(){
-			stopped = true;
-			this.interrupt();
+		public ArtifactId[] getCurrentArtifacts() throws CartagoException {
+			return env.getCurrentArtifacts();
 		}
 
-		public synchronized boolean isStopped(){
-			return stopped;
+		public AgentId[] getCurrentAgents() throws CartagoException {
+			return env.getCurrentAgents();
 		}
 
-		public void run(){
-			stopped = false;
-			while (!isStopped()){
-				try {
-					OpExecutionFrame item = opBuffer.take();		
-					//log("New job to do: "+item.getOpId());
-					item.setServingThread(Thread.currentThread());
-					env.serveOperation(item);
-					//nfailures = 0;
-				} catch (Exception ex){
-					ex.printStackTrace();
-					env.log("[ENV-CONTROLLER] uncaught operation exception: "+ex);
-					/*
-					 nfailures++;
-					if (nfailures>10){
-						break;
-					}*/
-				}
-			}
+		public boolean removeArtifact(String artifactName) throws CartagoException {
+			return env.removeArtifact(artifactName);
+		}
 
-			// stop requested, consuming existing items in the buffer 
+		public boolean removeAgent(String globalId) throws CartagoException {
+			return env.removeAgent(globalId);
+		}
 
-			while (!opBuffer.isEmpty()){
-				try {
-					OpExecutionFrame item = opBuffer.poll();		
-					if (item!=null){
-						item.setServingThread(Thread.currentThread());
-						env.serveOperation(item);
-					}
-				} catch (Exception ex){
-				}
-			}
+		public ArtifactInfo getArtifactInfo(String artifactName) throws CartagoException {
+			return env.getArtifactInfo(artifactName);
+		}
 
-			// env.log("[ENV-CONTROLLER] shutdown");
+		public int getNumControllers() throws CartagoException {
+			return env.controllers.getSize();
+		}
 
+		public int getNumBusyControllers() throws CartagoException {
+			return env.controllers.getNumBusy();
 		}
-	}
 
-	class CartagoController implements ICartagoController {
+		public int getNumPendingMailboxes() throws CartagoException {
+			return env.controllers.getQueueDepth();
+		}
 
-		private Workspace env;
+		public int getPeakNumControllers() throws CartagoException {
+			return env.controllers.getPeakSize();
+		}
 
-		public CartagoController(Workspace env){
-			this.env = env;
+		public long getNumRejectedMailboxes() throws CartagoException {
+			return env.controllers.getNumRejected();
 		}
 
-		public ArtifactId[] getCurrentArtifacts() throws CartagoException {
-			return env.getCurrentArtifacts();
+		public int getNumQueuedOps() throws CartagoException {
+			return env.getNumQueuedOps();
 		}
 
-		public AgentId[] getCurrentAgents() throws CartagoException {
-			return env.getCurrentAgents();
+		public int getNumInFlightOps() throws CartagoException {
+			return env.admission.getNumInFlight();
 		}
 
-		public boolean removeArtifact(String artifactName) throws CartagoException {
-			return env.removeArtifact(artifactName);
+		public long getNumAdmittedOps() throws CartagoException {
+			return env.admission.getNumAdmitted();
 		}
 
-		public boolean removeAgent(String globalId) throws CartagoException {
-			return env.removeAgent(globalId);
+		public long getNumRejectedOps() throws CartagoException {
+			return env.admission.getNumRejected();
 		}
 
-		public ArtifactInfo getArtifactInfo(String artifactName) throws CartagoException {
-			return env.getArtifactInfo(artifactName);
+		public long getNumDroppedEvents() throws CartagoException {
+			return env.nDroppedEvents.get();
 		}
 
 	}
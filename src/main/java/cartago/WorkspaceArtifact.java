@@ -32,6 +32,7 @@ import java.util.*;
  * @author aricci
  *
  */
+@ARTIFACT_INFO(priority=OpPriority.HIGH)
 public class WorkspaceArtifact extends Artifact {
 
 	private Workspace wsp;
@@ -50,7 +51,7 @@ public class WorkspaceArtifact extends Artifact {
 	 * @param artifactName artifact name
 	 * @param aid artifact identifier
 	 */
-	@OPERATION @LINK void lookupArtifact(String artifactName, OpFeedbackParam<ArtifactId> aid) {
+	@OPERATION(readOnly=true) @LINK void lookupArtifact(String artifactName, OpFeedbackParam<ArtifactId> aid) {
 		try {
 			ArtifactId id = wsp.lookupArtifact(this.getCurrentOpAgentId(), artifactName);
 			aid.set(id);
@@ -66,7 +67,7 @@ public class WorkspaceArtifact extends Artifact {
 	 * @param artifactType
 	 * @param aid
 	 */
-	@OPERATION
+	@OPERATION(readOnly=true)
 	@LINK
 	void lookupArtifactByType(String artifactType, OpFeedbackParam<ArtifactId> aid) {
 		try {
@@ -83,7 +84,7 @@ public class WorkspaceArtifact extends Artifact {
 	 *
 	 * @param list
 	 */
-	@OPERATION
+	@OPERATION(readOnly=true)
 	@LINK
 	void getCurrentArtifacts(OpFeedbackParam<String[]> list) {
 		try {
@@ -5,12 +5,11 @@ import cartago.*;
 public class Counter extends Artifact {
 
 	@OPERATION void init(){
-		defineObsProperty("count",0);
+		defineIntObsProperty("count",0);
 	}
 	    
 	@OPERATION void inc(){
-		ObsProperty prop = getObsProperty("count");
-		prop.updateValue(prop.intValue()+1);
+		incObsProperty("count");
 		signal("tick");
 	}
 }
\ No newline at end of file
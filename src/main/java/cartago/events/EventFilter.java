@@ -0,0 +1,568 @@
+/**
+ * CArtAgO - DISI, University of Bologna
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package cartago.events;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+import cartago.ArtifactObsProperty;
+import cartago.IEventFilter;
+import cartago.Tuple;
+
+/**
+ * Composable filter, built by combining predicates on the 
+ * signal (label, arity, arguments) and on the observable 
+ * properties of the events with AND, OR, NOT. 
+ * 
+ * For instance:
+ * <pre>
+ *   EventFilter.or(EventFilter.property("count"), 
+ *                  EventFilter.label("tick").and(EventFilter.arg(0, "high")))
+ * </pre>
+ * 
+ * Filters are normalized when built (nested ANDs and ORs are 
+ * flattened, duplicated operands removed, cheaper predicates 
+ * evaluated first). The filters of the observers of an artifact 
+ * are compiled together in a {@link Program}: identical predicates 
+ * are evaluated once for each event, whatever the number of filters 
+ * containing them.
+ *  
+ * @author aricci
+ *
+ */
+public abstract class EventFilter implements IEventFilter {
+
+	/* relative cost of the evaluation, used to order the operands */
+	private static final int COST_CHEAP = 1;
+	private static final int COST_ARGS = 2;
+	private static final int COST_PROPS = 4;
+	private static final int COST_REGEX = 8;
+
+	EventFilter(){}
+
+	/**
+	 * Selects the events with a signal with the given label
+	 */
+	public static EventFilter label(String label){
+		return new Label(label);
+	}
+
+	/**
+	 * Selects the events with a signal whose label matches the regular expression
+	 */
+	public static EventFilter labelMatches(String regex){
+		return new LabelMatches(regex);
+	}
+
+	/**
+	 * Selects the events with a signal with the given number of arguments
+	 */
+	public static EventFilter arity(int nargs){
+		return new Arity(nargs);
+	}
+
+	/**
+	 * Selects the events with a signal having the given value as index-th argument
+	 * (any value, if null)
+	 */
+	public static EventFilter arg(int index, Object value){
+		return new Arg(index, value);
+	}
+
+	/**
+	 * Selects the events adding, changing or removing a property with the given name
+	 */
+	public static EventFilter property(String name){
+		return new Property(name);
+	}
+
+	/**
+	 * Selects the events with a signal matching the template
+	 * (label, arity and the arguments that are not null)
+	 */
+	public static EventFilter signal(Tuple template){
+		List<EventFilter> list = new ArrayList<EventFilter>();
+		list.add(label(template.getLabel()));
+		list.add(arity(template.getNArgs()));
+		for (int i = 0; i < template.getNArgs(); i++){
+			if (template.getContent(i) != null){
+				list.add(arg(i, template.getContent(i)));
+			}
+		}
+		return and(list.toArray(new EventFilter[list.size()]));
+	}
+
+	public static EventFilter and(EventFilter... filters){
+		return Junction.make(true, filters);
+	}
+
+	public static EventFilter or(EventFilter... filters){
+		return Junction.make(false, filters);
+	}
+
+	public static EventFilter not(EventFilter filter){
+		if (filter instanceof Not){
+			return ((Not) filter).operand;
+		}
+		return new Not(filter);
+	}
+
+	public EventFilter and(EventFilter filter){
+		return and(this, filter);
+	}
+
+	public EventFilter or(EventFilter filter){
+		return or(this, filter);
+	}
+
+	public EventFilter negate(){
+		return not(this);
+	}
+
+	public boolean select(ArtifactObsEvent ev){
+		return eval(ev, null);
+	}
+
+	/**
+	 * Compile a set of filters in a single program, sharing the 
+	 * evaluation of the predicates they have in common.
+	 * 
+	 * @param filters
+	 * @return the program
+	 */
+	public static Program compile(List<? extends EventFilter> filters){
+		return new Program(filters);
+	}
+
+	/*
+	 * Evaluate the filter; memo keeps the results of the predicates 
+	 * already evaluated for the event (0 not evaluated, 1 false, 2 true)
+	 */
+	abstract boolean eval(ArtifactObsEvent ev, byte[] memo);
+
+	abstract int cost();
+
+	/* 
+	 * Get a copy of the filter where each predicate is replaced by
+	 * its slot in the memo, the same for all the equal predicates 
+	 */
+	abstract EventFilter bind(Map<Predicate, Slot> slots);
+
+	/**
+	 * Set of filters compiled together
+	 */
+	public static class Program {
+
+		private EventFilter[] filters;
+		private int nPredicates;
+
+		Program(List<? extends EventFilter> filters){
+			Map<Predicate, Slot> slots = new HashMap<Predicate, Slot>();
+			this.filters = new EventFilter[filters.size()];
+			for (int i = 0; i < this.filters.length; i++){
+				this.filters[i] = filters.get(i).bind(slots);
+			}
+			nPredicates = slots.size();
+		}
+
+		/**
+		 * @return number of filters of the program
+		 */
+		public int size(){
+			return filters.length;
+		}
+
+		/**
+		 * @return number of distinct predicates of the program
+		 */
+		public int getNumPredicates(){
+			return nPredicates;
+		}
+
+		/**
+		 * Evaluate all the filters on an event.
+		 * 
+		 * @param ev event
+		 * @param selected filled with the result of each filter, in the order of compilation
+		 */
+		public void select(ArtifactObsEvent ev, boolean[] selected){
+			byte[] memo = new byte[nPredicates];
+			for (int i = 0; i < filters.length; i++){
+				selected[i] = filters[i].eval(ev, memo);
+			}
+		}
+	}
+
+	/* predicate of a compiled filter, evaluated once for each event */
+	static class Slot extends EventFilter {
+		private Predicate predicate;
+		private int index;
+
+		Slot(Predicate predicate, int index){
+			this.predicate = predicate;
+			this.index = index;
+		}
+
+		boolean eval(ArtifactObsEvent ev, byte[] memo){
+			byte r = memo[index];
+			if (r == 0){
+				boolean res = predicate.test(ev);
+				memo[index] = res ? (byte) 2 : (byte) 1;
+				return res;
+			}
+			return r == 2;
+		}
+
+		int cost(){
+			return predicate.cost();
+		}
+
+		EventFilter bind(Map<Predicate, Slot> slots){
+			return this;
+		}
+
+		public String toString(){
+			return predicate.toString();
+		}
+	}
+
+	/* 
+	 * Atomic predicates, compared by value so that the same predicate 
+	 * used by different filters is evaluated once
+	 */
+	static abstract class Predicate extends EventFilter {
+
+		abstract boolean test(ArtifactObsEvent ev);
+
+		boolean eval(ArtifactObsEvent ev, byte[] memo){
+			return test(ev);
+		}
+
+		EventFilter bind(Map<Predicate, Slot> slots){
+			Slot slot = slots.get(this);
+			if (slot == null){
+				slot = new Slot(this, slots.size());
+				slots.put(this, slot);
+			}
+			return slot;
+		}
+	}
+
+	static class Label extends Predicate {
+		private String label;
+
+		Label(String label){
+			this.label = label;
+		}
+
+		boolean test(ArtifactObsEvent ev){
+			Tuple sig = ev.getSignal();
+			return sig != null && label.equals(sig.getLabel());
+		}
+
+		int cost(){
+			return COST_CHEAP;
+		}
+
+		public boolean equals(Object obj){
+			return obj instanceof Label && ((Label) obj).label.equals(label);
+		}
+
+		public int hashCode(){
+			return label.hashCode();
+		}
+
+		public String toString(){
+			return "label("+label+")";
+		}
+	}
+
+	static class LabelMatches extends Predicate {
+		/* results cached by label, labels being usually few */
+		private static final int MAX_CACHED = 256;
+
+		private Pattern pattern;
+		private transient ConcurrentHashMap<String, Boolean> results;
+
+		LabelMatches(String regex){
+			pattern = Pattern.compile(regex);
+		}
+
+		boolean test(ArtifactObsEvent ev){
+			Tuple sig = ev.getSignal();
+			if (sig == null || sig.getLabel() == null){
+				return false;
+			}
+			return matches(sig.getLabel());
+		}
+
+		boolean matches(String label){
+			ConcurrentHashMap<String, Boolean> cache = results;
+			if (cache == null){
+				cache = new ConcurrentHashMap<String, Boolean>();
+				results = cache;
+			}
+			Boolean res = cache.get(label);
+			if (res == null){
+				res = pattern.matcher(label).matches();
+				if (cache.size() < MAX_CACHED){
+					cache.put(label, res);
+				}
+			}
+			return res;
+		}
+
+		int cost(){
+			return COST_REGEX;
+		}
+
+		public boolean equals(Object obj){
+			return obj instanceof LabelMatches && ((LabelMatches) obj).pattern.pattern().equals(pattern.pattern());
+		}
+
+		public int hashCode(){
+			return pattern.pattern().hashCode();
+		}
+
+		public String toString(){
+			return "labelMatches("+pattern.pattern()+")";
+		}
+	}
+
+	static class Arity extends Predicate {
+		private int nargs;
+
+		Arity(int nargs){
+			this.nargs = nargs;
+		}
+
+		boolean test(ArtifactObsEvent ev){
+			Tuple sig = ev.getSignal();
+			return sig != null && sig.getNArgs() == nargs;
+		}
+
+		int cost(){
+			return COST_CHEAP;
+		}
+
+		public boolean equals(Object obj){
+			return obj instanceof Arity && ((Arity) obj).nargs == nargs;
+		}
+
+		public int hashCode(){
+			return 31 * nargs + 7;
+		}
+
+		public String toString(){
+			return "arity("+nargs+")";
+		}
+	}
+
+	static class Arg extends Predicate {
+		private int index;
+		private Object value;
+
+		Arg(int index, Object value){
+			this.index = index;
+			this.value = value;
+		}
+
+		boolean test(ArtifactObsEvent ev){
+			Tuple sig = ev.getSignal();
+			if (sig == null || index >= sig.getNArgs()){
+				return false;
+			}
+			return value == null || value.equals(sig.getContent(index));
+		}
+
+		int cost(){
+			return COST_ARGS;
+		}
+
+		public boolean equals(Object obj){
+			if (obj instanceof Arg){
+				Arg a = (Arg) obj;
+				return a.index == index && (value == null ? a.value == null : value.equals(a.value));
+			}
+			return false;
+		}
+
+		public int hashCode(){
+			return 31 * index + (value == null ? 0 : value.hashCode());
+		}
+
+		public String toString(){
+			return "arg("+index+","+value+")";
+		}
+	}
+
+	static class Property extends Predicate {
+		private String name;
+
+		Property(String name){
+			this.name = name;
+		}
+
+		boolean test(ArtifactObsEvent ev){
+			return contains(ev.getChangedProperties()) || contains(ev.getAddedProperties()) || contains(ev.getRemovedProperties());
+		}
+
+		private boolean contains(ArtifactObsProperty[] props){
+			if (props != null){
+				for (ArtifactObsProperty p: props){
+					if (name.equals(p.getName())){
+						return true;
+					}
+				}
+			}
+			return false;
+		}
+
+		int cost(){
+			return COST_PROPS;
+		}
+
+		public boolean equals(Object obj){
+			return obj instanceof Property && ((Property) obj).name.equals(name);
+		}
+
+		public int hashCode(){
+			return name.hashCode() * 17;
+		}
+
+		public String toString(){
+			return "property("+name+")";
+		}
+	}
+
+	static class Not extends EventFilter {
+		private EventFilter operand;
+
+		Not(EventFilter operand){
+			this.operand = operand;
+		}
+
+		boolean eval(ArtifactObsEvent ev, byte[] memo){
+			return !operand.eval(ev, memo);
+		}
+
+		int cost(){
+			return operand.cost();
+		}
+
+		EventFilter bind(Map<Predicate, Slot> slots){
+			return new Not(operand.bind(slots));
+		}
+
+		public boolean equals(Object obj){
+			return obj instanceof Not && ((Not) obj).operand.equals(operand);
+		}
+
+		public int hashCode(){
+			return ~operand.hashCode();
+		}
+
+		public String toString(){
+			return "not("+operand+")";
+		}
+	}
+
+	/* AND or OR of the operands, evaluated with short circuit */
+	static class Junction extends EventFilter {
+		private boolean isAnd;
+		private EventFilter[] operands;
+		private int cost;
+
+		private Junction(boolean isAnd, EventFilter[] operands){
+			this.isAnd = isAnd;
+			this.operands = operands;
+			for (EventFilter f: operands){
+				cost += f.cost();
+			}
+		}
+
+		static EventFilter make(boolean isAnd, EventFilter[] filters){
+			/* flattening nested junctions of the same kind and removing duplicates */
+			LinkedHashSet<EventFilter> set = new LinkedHashSet<EventFilter>();
+			for (EventFilter f: filters){
+				if (f instanceof Junction && ((Junction) f).isAnd == isAnd){
+					set.addAll(Arrays.asList(((Junction) f).operands));
+				} else {
+					set.add(f);
+				}
+			}
+			if (set.size() == 1){
+				return set.iterator().next();
+			}
+			EventFilter[] operands = set.toArray(new EventFilter[set.size()]);
+			Arrays.sort(operands, Comparator.comparingInt(EventFilter::cost));
+			return new Junction(isAnd, operands);
+		}
+
+		boolean eval(ArtifactObsEvent ev, byte[] memo){
+			for (EventFilter f: operands){
+				if (f.eval(ev, memo) != isAnd){
+					return !isAnd;
+				}
+			}
+			return isAnd;
+		}
+
+		int cost(){
+			return cost;
+		}
+
+		EventFilter bind(Map<Predicate, Slot> slots){
+			EventFilter[] bound = new EventFilter[operands.length];
+			for (int i = 0; i < operands.length; i++){
+				bound[i] = operands[i].bind(slots);
+			}
+			return new Junction(isAnd, bound);
+		}
+
+		public boolean equals(Object obj){
+			if (obj instanceof Junction){
+				Junction j = (Junction) obj;
+				return j.isAnd == isAnd && Arrays.equals(j.operands, operands);
+			}
+			return false;
+		}
+
+		public int hashCode(){
+			return Arrays.hashCode(operands) + (isAnd ? 1 : 0);
+		}
+
+		public String toString(){
+			StringBuffer st = new StringBuffer(isAnd ? "and(" : "or(");
+			for (int i = 0; i < operands.length; i++){
+				if (i > 0){
+					st.append(",");
+				}
+				st.append(operands[i]);
+			}
+			return st.append(")").toString();
+		}
+	}
+}
@@ -17,7 +17,7 @@
  */
 package cartago.events;
 
-import cartago.IEventFilter;
+import cartago.ISubscriptionFilter;
 import cartago.*;
 
 /**
@@ -26,12 +26,22 @@ import cartago.*;
  * @author aricci
  *
  */
-public class ObsPropertyFilter implements IEventFilter {
+public class ObsPropertyFilter implements ISubscriptionFilter {
 	
+	private static final String[] NONE = new String[0];
+
 	private String[] properties;
 	
 	public ObsPropertyFilter(String[] properties){
-		this.properties=properties;
+		this.properties = properties != null ? properties : NONE;
+	}
+
+	public String[] getPropertyNames(){
+		return properties;
+	}
+
+	public String[] getSignalLabels(){
+		return NONE;
 	}
 	
 	public boolean select(ArtifactObsEvent ev){
@@ -17,9 +17,8 @@
  */
 package cartago.events;
 
-import java.util.regex.*;
-
 import cartago.IEventFilter;
+import cartago.Tuple;
 
 /**
  * A Filter based on regular-expression pattern matching.
@@ -29,15 +28,16 @@ import cartago.IEventFilter;
  */
 public class RegExFilter implements IEventFilter, java.io.Serializable {
 	
-	private Pattern pattern;
+	/* caching the result for each label */
+	private EventFilter.LabelMatches matcher;
 	
 	public RegExFilter(String pattern){
-		this.pattern=Pattern.compile(pattern);
+		matcher = new EventFilter.LabelMatches(pattern);
 	}
 	
 	public boolean select(ArtifactObsEvent ev){
-        Matcher matcher = pattern.matcher(ev.getSignal().getLabel().toString());
-		return matcher.matches();
+		Tuple sig = ev.getSignal();
+		return sig != null && sig.getLabel() != null && matcher.matches(sig.getLabel());
 	}
 	
 }
@@ -17,7 +17,7 @@
  */
 package cartago.events;
 
-import cartago.IEventFilter;
+import cartago.ISubscriptionFilter;
 import cartago.*;
 
 /**
@@ -26,12 +26,22 @@ import cartago.*;
  * @author aricci
  *
  */
-public class SignalFilter implements IEventFilter {
+public class SignalFilter implements ISubscriptionFilter {
 	
+	private static final String[] NONE = new String[0];
+
 	private String[] signals;
 	
 	public SignalFilter(String[] signals){
-		this.signals=signals;
+		this.signals = signals != null ? signals : NONE;
+	}
+
+	public String[] getPropertyNames(){
+		return NONE;
+	}
+
+	public String[] getSignalLabels(){
+		return signals;
 	}
 	
 	public boolean select(ArtifactObsEvent ev){
@@ -39,7 +39,7 @@ public class TupleListFilter implements IEventFilter, java.io.Serializable {
 		if (sig != null){
 			for (Tuple tuple: tlist){
 				if (tuple.getLabel().equals(sig.getLabel()) && tuple.getNArgs() == sig.getNArgs()){
-					boolean match = false;
+					boolean match = true;
 					for (int i = 0; i < tuple.getNArgs(); i++){
 						Object arg = tuple.getContent(i);
 						if (arg!=null && !arg.equals(sig.getContent(i))){
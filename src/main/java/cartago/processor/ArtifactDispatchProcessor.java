@@ -0,0 +1,367 @@
+/**
+ * CArtAgO - DISI, University of Bologna
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package cartago.processor;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+
+import cartago.ArtifactDispatchTable;
+import cartago.GUARD;
+import cartago.INTERNAL_OPERATION;
+import cartago.LINK;
+import cartago.OPERATION;
+import cartago.OpPriority;
+
+/**
+ * Annotation processor generating the dispatch table of artifact classes.
+ * 
+ * For each artifact class declaring operations or guards, a class
+ * extending ArtifactDispatchTable is generated, calling the annotated
+ * methods directly. No table is generated for the classes whose methods
+ * cannot be called from another class of the same package (e.g. private
+ * operations or guards), which are then set up by reflection as usual.
+ * 
+ * The processor is registered as a service in the cartago jar, so it is 
+ * run by javac when compiling artifacts with cartago in the class path.
+ * 
+ * @author aricci
+ *
+ */
+@SupportedAnnotationTypes({"cartago.OPERATION", "cartago.LINK", "cartago.INTERNAL_OPERATION", "cartago.GUARD"})
+public class ArtifactDispatchProcessor extends AbstractProcessor {
+
+	private static final String ARTIFACT_CLASS = "cartago.Artifact";
+
+	@Override
+	public SourceVersion getSupportedSourceVersion() {
+		return SourceVersion.latestSupported();
+	}
+
+	@Override
+	public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+		Set<TypeElement> classes = new LinkedHashSet<TypeElement>();
+		for (TypeElement annotation : annotations) {
+			for (Element e : roundEnv.getElementsAnnotatedWith(annotation)) {
+				Element owner = e.getEnclosingElement();
+				if (e.getKind() == ElementKind.METHOD && owner.getKind() == ElementKind.CLASS) {
+					classes.add((TypeElement) owner);
+				}
+			}
+		}
+		for (TypeElement c : classes) {
+			if (isArtifactClass(c)) {
+				try {
+					generateTable(c);
+				} catch (IOException ex) {
+					processingEnv.getMessager().printMessage(Diagnostic.Kind.WARNING,
+							"CArtAgO dispatch table not generated: " + ex.getMessage(), c);
+				}
+			}
+		}
+		/* the annotations are not claimed, other processors can use them */
+		return false;
+	}
+
+	private boolean isArtifactClass(TypeElement c) {
+		TypeMirror artifact = processingEnv.getElementUtils().getTypeElement(ARTIFACT_CLASS).asType();
+		return processingEnv.getTypeUtils().isSubtype(processingEnv.getTypeUtils().erasure(c.asType()), artifact);
+	}
+
+	/*
+	 * Operation or guard of the table
+	 */
+	private static class Entry {
+		ExecutableElement method;
+		String type;
+		ExecutableElement guard;
+		OpPriority priority;
+		boolean readOnly;
+	}
+
+	private void generateTable(TypeElement c) throws IOException {
+		PackageElement pkg = processingEnv.getElementUtils().getPackageOf(c);
+		if (!isAccessible(c, pkg)) {
+			return;
+		}
+		List<Entry> ops = new ArrayList<Entry>();
+		List<ExecutableElement> guards = new ArrayList<ExecutableElement>();
+		for (ExecutableElement m : ElementFilter.methodsIn(c.getEnclosedElements())) {
+			Entry entry = new Entry();
+			entry.method = m;
+			String guard = "";
+			/* same precedence of Artifact.setupOperations */
+			if (m.getAnnotation(OPERATION.class) != null) {
+				OPERATION op = m.getAnnotation(OPERATION.class);
+				entry.type = "UI";
+				entry.priority = op.priority();
+				entry.readOnly = op.readOnly();
+				guard = op.guard();
+			} else if (m.getAnnotation(LINK.class) != null) {
+				entry.type = "LINK";
+				entry.priority = OpPriority.DEFAULT;
+				guard = m.getAnnotation(LINK.class).guard();
+			} else if (m.getAnnotation(INTERNAL_OPERATION.class) != null) {
+				entry.type = "INTERNAL";
+				entry.priority = OpPriority.DEFAULT;
+				guard = m.getAnnotation(INTERNAL_OPERATION.class).guard();
+			} else if (m.getAnnotation(GUARD.class) != null) {
+				if (!isCallable(m, pkg) || !returnsBoolean(m)) {
+					return;
+				}
+				guards.add(m);
+				continue;
+			} else {
+				continue;
+			}
+			if (!isCallable(m, pkg)) {
+				return;
+			}
+			if (!guard.equals("")) {
+				entry.guard = findGuard(c, guard, m);
+				/* invalid guards are reported when the artifact is set up */
+				if (entry.guard == null || !isCallable(entry.guard, pkg) || !returnsBoolean(entry.guard)) {
+					return;
+				}
+			}
+			ops.add(entry);
+		}
+		writeTable(c, pkg, ops, guards);
+	}
+
+	/* as Artifact.getMethodInHierarchy: same name and parameter types, starting from the class */
+	private ExecutableElement findGuard(TypeElement c, String name, ExecutableElement op) {
+		TypeElement cl = c;
+		while (cl != null) {
+			for (ExecutableElement m : ElementFilter.methodsIn(cl.getEnclosedElements())) {
+				if (m.getSimpleName().contentEquals(name) && sameParameterTypes(m, op)) {
+					return m;
+				}
+			}
+			TypeMirror sup = cl.getSuperclass();
+			cl = sup.getKind() == TypeKind.DECLARED ? (TypeElement) ((DeclaredType) sup).asElement() : null;
+		}
+		return null;
+	}
+
+	private boolean sameParameterTypes(ExecutableElement m1, ExecutableElement m2) {
+		List<? extends VariableElement> p1 = m1.getParameters();
+		List<? extends VariableElement> p2 = m2.getParameters();
+		if (p1.size() != p2.size()) {
+			return false;
+		}
+		for (int i = 0; i < p1.size(); i++) {
+			if (!processingEnv.getTypeUtils().isSameType(erasure(p1.get(i).asType()), erasure(p2.get(i).asType()))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private boolean returnsBoolean(ExecutableElement m) {
+		TypeMirror t = m.getReturnType();
+		return t.getKind() == TypeKind.BOOLEAN || t.toString().equals("java.lang.Boolean");
+	}
+
+	/* the method can be called by the table, in the package of the artifact class */
+	private boolean isCallable(ExecutableElement m, PackageElement pkg) {
+		Set<Modifier> mods = m.getModifiers();
+		if (mods.contains(Modifier.PRIVATE) || mods.contains(Modifier.STATIC) || !m.getTypeParameters().isEmpty()) {
+			return false;
+		}
+		if (!mods.contains(Modifier.PUBLIC) && !processingEnv.getElementUtils().getPackageOf(m).equals(pkg)) {
+			return false;
+		}
+		for (VariableElement p : m.getParameters()) {
+			if (!isAccessible(erasure(p.asType()), pkg)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private boolean isAccessible(TypeMirror t, PackageElement pkg) {
+		if (t.getKind().isPrimitive()) {
+			return true;
+		} else if (t.getKind() == TypeKind.ARRAY) {
+			return isAccessible(((ArrayType) t).getComponentType(), pkg);
+		} else if (t.getKind() == TypeKind.DECLARED) {
+			return isAccessible((TypeElement) ((DeclaredType) t).asElement(), pkg);
+		}
+		return false;
+	}
+
+	private boolean isAccessible(TypeElement c, PackageElement pkg) {
+		Element e = c;
+		while (e instanceof TypeElement) {
+			TypeElement te = (TypeElement) e;
+			if (te.getNestingKind() == NestingKind.LOCAL || te.getNestingKind() == NestingKind.ANONYMOUS) {
+				return false;
+			}
+			Set<Modifier> mods = te.getModifiers();
+			if (mods.contains(Modifier.PRIVATE)) {
+				return false;
+			}
+			if (!mods.contains(Modifier.PUBLIC) && !processingEnv.getElementUtils().getPackageOf(te).equals(pkg)) {
+				return false;
+			}
+			e = te.getEnclosingElement();
+		}
+		return true;
+	}
+
+	private TypeMirror erasure(TypeMirror t) {
+		return processingEnv.getTypeUtils().erasure(t);
+	}
+
+	/* the binary name of a class, without the package */
+	private String getLocalBinaryName(TypeElement c, PackageElement pkg) {
+		String name = processingEnv.getElementUtils().getBinaryName(c).toString();
+		return pkg.isUnnamed() ? name : name.substring(pkg.getQualifiedName().length() + 1);
+	}
+
+	private void writeTable(TypeElement c, PackageElement pkg, List<Entry> ops, List<ExecutableElement> guards) throws IOException {
+		String tableName = getLocalBinaryName(c, pkg) + ArtifactDispatchTable.TABLE_SUFFIX;
+		String qualifiedName = pkg.isUnnamed() ? tableName : pkg.getQualifiedName() + "." + tableName;
+		String artifactType = erasure(c.asType()).toString();
+		try (PrintWriter out = new PrintWriter(processingEnv.getFiler().createSourceFile(qualifiedName, c).openWriter())) {
+			if (!pkg.isUnnamed()) {
+				out.println("package " + pkg.getQualifiedName() + ";");
+				out.println();
+			}
+			out.println("/**");
+			out.println(" * Dispatch table of " + c.getQualifiedName() + ", generated by " + getClass().getName());
+			out.println(" */");
+			out.println("@javax.annotation.processing.Generated(\"" + getClass().getName() + "\")");
+			out.println("@SuppressWarnings({\"rawtypes\", \"unchecked\"})");
+			out.println("public final class " + tableName + " extends cartago.ArtifactDispatchTable {");
+			out.println();
+			out.println("\tprotected Class<?> getArtifactClass() {");
+			out.println("\t\treturn " + artifactType + ".class;");
+			out.println("\t}");
+			out.println();
+			out.println("\tprotected void setup() {");
+			for (ExecutableElement g : guards) {
+				out.println("\t\tdefineGuard(" + newGuard(g, artifactType) + ");");
+			}
+			for (Entry op : ops) {
+				String guard = op.guard != null ? newGuard(op.guard, artifactType) : "null";
+				out.println("\t\tdefineOp(cartago.OpDescriptor.OpType." + op.type + ", " + newOp(op.method, artifactType) + ", "
+						+ guard + ", cartago.OpPriority." + op.priority.name() + ", " + op.readOnly + ");");
+			}
+			out.println("\t}");
+			out.println("}");
+		}
+	}
+
+	private String newOp(ExecutableElement m, String artifactType) {
+		StringBuilder sb = new StringBuilder();
+		int n = m.getParameters().size();
+		sb.append("new Operation(\"").append(m.getSimpleName()).append("\", ").append(n).append(", ").append(m.isVarArgs()).append(") {\n");
+		sb.append("\t\t\tpublic void exec(cartago.Artifact artifact, Object[] p) throws Exception {\n");
+		appendArgs(sb, m, artifactType);
+		sb.append("\t\t\t\ttry {\n");
+		sb.append("\t\t\t\t\t").append(call(m)).append(";\n");
+		sb.append("\t\t\t\t} catch (Throwable ex) {\n");
+		sb.append("\t\t\t\t\tthrow new java.lang.reflect.InvocationTargetException(ex);\n");
+		sb.append("\t\t\t\t}\n");
+		sb.append("\t\t\t}\n");
+		sb.append("\t\t}");
+		return sb.toString();
+	}
+
+	private String newGuard(ExecutableElement m, String artifactType) {
+		StringBuilder sb = new StringBuilder();
+		int n = m.getParameters().size();
+		String deps = "null";
+		GUARD g = m.getAnnotation(GUARD.class);
+		if (g != null && g.dependsOn().length > 0) {
+			StringBuilder d = new StringBuilder("new java.lang.String[] {");
+			for (int i = 0; i < g.dependsOn().length; i++) {
+				d.append(i > 0 ? ", " : "").append(processingEnv.getElementUtils().getConstantExpression(g.dependsOn()[i]));
+			}
+			deps = d.append("}").toString();
+		}
+		sb.append("new Guard(\"").append(m.getSimpleName()).append("\", ").append(n).append(", ").append(deps).append(") {\n");
+		sb.append("\t\t\tpublic boolean eval(cartago.Artifact artifact, Object[] p) throws Exception {\n");
+		appendArgs(sb, m, artifactType);
+		sb.append("\t\t\t\ttry {\n");
+		sb.append("\t\t\t\t\treturn ").append(call(m)).append(";\n");
+		sb.append("\t\t\t\t} catch (Throwable ex) {\n");
+		sb.append("\t\t\t\t\tthrow new java.lang.reflect.InvocationTargetException(ex);\n");
+		sb.append("\t\t\t\t}\n");
+		sb.append("\t\t\t}\n");
+		sb.append("\t\t}");
+		return sb.toString();
+	}
+
+	/* arguments are converted before the call, so that conversion failures are not wrapped */
+	private void appendArgs(StringBuilder sb, ExecutableElement m, String artifactType) {
+		List<? extends VariableElement> params = m.getParameters();
+		sb.append("\t\t\t\t").append(artifactType).append(" target = (").append(artifactType).append(") artifact;\n");
+		sb.append("\t\t\t\tcheckArgs(p, ").append(params.size()).append(");\n");
+		for (int i = 0; i < params.size(); i++) {
+			TypeMirror t = erasure(params.get(i).asType());
+			sb.append("\t\t\t\t").append(t.toString()).append(" a").append(i).append(" = ").append(convert(t, "p[" + i + "]")).append(";\n");
+		}
+	}
+
+	private String convert(TypeMirror t, String value) {
+		switch (t.getKind()) {
+		case BOOLEAN: return "asBoolean(" + value + ")";
+		case BYTE: return "asByte(" + value + ")";
+		case CHAR: return "asChar(" + value + ")";
+		case SHORT: return "asShort(" + value + ")";
+		case INT: return "asInt(" + value + ")";
+		case LONG: return "asLong(" + value + ")";
+		case FLOAT: return "asFloat(" + value + ")";
+		case DOUBLE: return "asDouble(" + value + ")";
+		default: return "arg(" + value + ", " + t.toString() + ".class)";
+		}
+	}
+
+	private String call(ExecutableElement m) {
+		StringBuilder sb = new StringBuilder("target.").append(m.getSimpleName()).append("(");
+		for (int i = 0; i < m.getParameters().size(); i++) {
+			sb.append(i > 0 ? ", " : "").append("a").append(i);
+		}
+		return sb.append(")").toString();
+	}
+}
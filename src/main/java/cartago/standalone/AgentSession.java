@@ -28,7 +28,7 @@ public class AgentSession implements IAgentSession, ICartagoCallback, Serializab
 	private WorkspaceId		homeWspId;
 	
 	// queue where percepts are notified by the environment
-	private java.util.concurrent.ConcurrentLinkedQueue<CartagoEvent> perceptQueue;
+	private ConflatingPerceptQueue perceptQueue;
 
 	private ICartagoListener agentArchListener;
 	private AtomicLong actionId;
@@ -41,7 +41,7 @@ public class AgentSession implements IAgentSession, ICartagoCallback, Serializab
 		
 	public AgentSession(AgentCredential credential, String agentRole, ICartagoListener listener) throws CartagoException {
 		contexts = new ConcurrentHashMap<WorkspaceId, ICartagoContext>();
-		perceptQueue = new java.util.concurrent.ConcurrentLinkedQueue<CartagoEvent>();
+		perceptQueue = new ConflatingPerceptQueue();
 		agentArchListener = listener;
 		this.agentRole = agentRole;
 		this.credential = credential;
@@ -230,6 +230,30 @@ public class AgentSession implements IAgentSession, ICartagoCallback, Serializab
 		return perceptQueue.poll();
 	}
 
+	/**
+	 * Conflate the changes of the obs properties of an artifact.
+	 * 
+	 * Until the percepts are fetched, only the latest value of each
+	 * conflated property is kept. Signals, added and removed properties 
+	 * are still delivered one by one. Useful to observe artifacts
+	 * updating their properties at a high rate.
+	 * 
+	 * @param aid observed artifact
+	 * @param propNames properties to conflate, all the properties if none is specified
+	 */
+	public void setConflation(ArtifactId aid, String... propNames) {
+		perceptQueue.setConflation(aid, propNames);
+	}
+
+	/**
+	 * Deliver again all the changes of the obs properties of an artifact.
+	 * 
+	 * @param aid observed artifact
+	 */
+	public void removeConflation(ArtifactId aid) {
+		perceptQueue.removeConflation(aid);
+	}
+
 	/*
 	private void checkWSPEvents(CartagoEvent ev) {
 		if (ev instanceof JoinWSPRequestSucceededEvent) {
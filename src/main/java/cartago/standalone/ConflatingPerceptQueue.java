@@ -0,0 +1,164 @@
+package cartago.standalone;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import cartago.ArtifactId;
+import cartago.ArtifactObsProperty;
+import cartago.CartagoEvent;
+import cartago.events.ArtifactObsEvent;
+
+/**
+ * Queue of the percepts of an agent session,
+ * conflating the changes of selected obs properties.
+ *
+ * For the conflated properties only the latest value is kept
+ * until the percepts are fetched: the changes are collected in
+ * a single pending event per artifact, queued at the position of the
+ * first change and filled with the latest values when fetched.
+ * The changes following an event adding or removing properties
+ * of the artifact are collected in a new pending event, queued after it.
+ * Signals, added and removed properties are delivered exactly.
+ *
+ * @author aricci
+ *
+ */
+class ConflatingPerceptQueue implements Serializable {
+
+	private static final ArtifactObsProperty[] EMPTY_LIST = new ArtifactObsProperty[0];
+
+	private ConcurrentLinkedQueue<CartagoEvent> queue;
+
+	/* conflated props by artifact, an empty set meaning all the props */
+	private ConcurrentHashMap<ArtifactId, Set<String>> conflated;
+
+	/* changes not fetched yet, by artifact */
+	private HashMap<ArtifactId, PendingChanges> pending;
+
+	ConflatingPerceptQueue(){
+		queue = new ConcurrentLinkedQueue<CartagoEvent>();
+		conflated = new ConcurrentHashMap<ArtifactId, Set<String>>();
+		pending = new HashMap<ArtifactId, PendingChanges>();
+	}
+
+	void setConflation(ArtifactId aid, String... propNames){
+		Set<String> names = new HashSet<String>();
+		Collections.addAll(names, propNames);
+		conflated.put(aid, names);
+	}
+
+	void removeConflation(ArtifactId aid){
+		conflated.remove(aid);
+	}
+
+	void add(CartagoEvent ev){
+		if (!conflated.isEmpty() && ev instanceof ArtifactObsEvent){
+			ArtifactObsEvent obsEv = (ArtifactObsEvent) ev;
+			Set<String> names = conflated.get(obsEv.getArtifactId());
+			if (names != null){
+				addConflated(obsEv, names);
+				return;
+			}
+		}
+		queue.add(ev);
+	}
+
+	private synchronized void addConflated(ArtifactObsEvent ev, Set<String> names){
+		ArtifactId src = ev.getArtifactId();
+		PendingChanges changes = pending.get(src);
+
+		/* a removed prop must not be notified as changed afterwards */
+		ArtifactObsProperty[] removed = ev.getRemovedProperties();
+		if (changes != null && removed != null){
+			for (ArtifactObsProperty p: removed){
+				changes.props.remove(p.getId());
+			}
+		}
+
+		ArtifactObsProperty[] changed = ev.getChangedProperties();
+		List<ArtifactObsProperty> exact = null;
+		if (changed != null){
+			for (ArtifactObsProperty p: changed){
+				if (names.isEmpty() || names.contains(p.getName())){
+					if (changes == null){
+						changes = new PendingChanges(src);
+						pending.put(src, changes);
+						queue.add(changes);
+					}
+					changes.props.put(p.getId(), p);
+					changes.lastId = ev.getId();
+					changes.lastTimestamp = ev.getTimestamp();
+				} else {
+					if (exact == null){
+						exact = new ArrayList<ArtifactObsProperty>();
+					}
+					exact.add(p);
+				}
+			}
+		}
+
+		int nConflated = changed == null ? 0 : changed.length - (exact == null ? 0 : exact.size());
+		if (nConflated == 0){
+			queue.add(ev);
+		} else if (exact != null || ev.getSignal() != null || !isEmpty(ev.getAddedProperties()) || !isEmpty(removed)){
+			ArtifactObsProperty[] exactChanged = exact == null ? EMPTY_LIST : exact.toArray(new ArtifactObsProperty[exact.size()]);
+			queue.add(new ArtifactObsEvent(ev.getId(), src, ev.getSignal(), exactChanged, ev.getAddedProperties(), removed, ev.getTimestamp()));
+		}
+
+		/* 
+		 * the changes following an add or a remove must not be
+		 * merged in the pending event queued before it
+		 */
+		if (changes != null && (!isEmpty(ev.getAddedProperties()) || !isEmpty(removed))){
+			pending.remove(src);
+		}
+	}
+
+	CartagoEvent poll(){
+		CartagoEvent ev = queue.poll();
+		while (ev instanceof PendingChanges){
+			PendingChanges changes = (PendingChanges) ev;
+			ArtifactObsProperty[] props;
+			synchronized (this){
+				/* a newer pending event may have replaced it */
+				pending.remove(changes.src, changes);
+				props = changes.props.values().toArray(new ArtifactObsProperty[changes.props.size()]);
+			}
+			if (props.length > 0){
+				return new ArtifactObsEvent(changes.lastId, changes.src, null, props, EMPTY_LIST, EMPTY_LIST, changes.lastTimestamp);
+			}
+			/* all the changed props have been removed meanwhile */
+			ev = queue.poll();
+		}
+		return ev;
+	}
+
+	private static boolean isEmpty(ArtifactObsProperty[] props){
+		return props == null || props.length == 0;
+	}
+
+	/*
+	 * Latest values of the conflated props changed,
+	 * queued in place of the events not fetched yet
+	 */
+	private static class PendingChanges extends CartagoEvent {
+
+		ArtifactId src;
+		LinkedHashMap<Long, ArtifactObsProperty> props;
+		long lastId;
+		long lastTimestamp;
+
+		PendingChanges(ArtifactId src){
+			this.src = src;
+			props = new LinkedHashMap<Long, ArtifactObsProperty>();
+		}
+	}
+}
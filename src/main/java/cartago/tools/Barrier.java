@@ -39,12 +39,11 @@ public class Barrier extends Artifact {
 		this.nParticipants = nParticipants; 
 	}
 	
-	@OPERATION void waitForAll() throws Exception {
-		await("allParticipantsSignaled");
+	@OPERATION(guard="allParticipantsSignaled") void waitForAll() throws Exception {
 		counter = 0;
 	}	
 
-	@GUARD boolean allParticipantsSignaled(){
+	@GUARD(dependsOn="counter") boolean allParticipantsSignaled(){
 		return counter==nParticipants;
 	}
 	
@@ -12,9 +12,10 @@ public class Clock extends Artifact {
 
 	private boolean stopped;
 	private int nwaits;
+	private int session;
 	
 	@OPERATION void init(){
-		defineObsProperty("nticks",0);
+		defineIntObsProperty("nticks",0);
 		stopped = false;
 		nwaits = 10;
 	}
@@ -30,7 +31,8 @@ public class Clock extends Artifact {
 	 */
 	@OPERATION void start(){
 		stopped = false;
-		execInternalOp("ticketing");
+		session++;
+		execInternalOp("ticketing", session);
 	}
 
 	@OPERATION void setFrequency(int hz){
@@ -43,12 +45,15 @@ public class Clock extends Artifact {
 		stopped = true;
 	}
 
-	@INTERNAL_OPERATION void ticketing(){
-		while (!stopped){
-			ObsProperty prop = getObsPropertyByTemplate("nticks");
-			prop.updateValue(prop.intValue() + nwaits);
+	/*
+	 * A tick at a time, rescheduled on the workspace timer
+	 * so that no thread is kept between ticks 
+	 */
+	@INTERNAL_OPERATION void ticketing(int session){
+		if (!stopped && session == this.session){
+			incObsProperty("nticks", nwaits);
 			signal("tick");
-			await_time(nwaits);
+			execInternalOp(nwaits, "ticketing", session);
 		}
 	}	
 }
@@ -20,7 +20,7 @@ public class Latch extends Artifact {
 
 	@OPERATION(guard="isSet") void waitForSet(){}	
 	
-	@GUARD boolean isSet(){
+	@GUARD(dependsOn="isSet") boolean isSet(){
 		return isSet;
 	}
 }
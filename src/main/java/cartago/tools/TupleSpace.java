@@ -12,11 +12,11 @@ public class TupleSpace extends Artifact {
 	
 	@OPERATION void out(String name, Object... args){
 		tset.add(new Tuple(name,args));
+		dependencyChanged("tuple:"+name);
 	}
 	
-	@OPERATION void in(String name, Object... params){
+	@OPERATION(guard="foundMatch") void in(String name, Object... params){
 		TupleTemplate tt = new TupleTemplate(name,params);
-		await("foundMatch",tt);
 		Tuple t = tset.removeMatching(tt);
 		bind(tt,t);
 	}
@@ -31,14 +31,13 @@ public class TupleSpace extends Artifact {
 		}
 	}
 
-	@OPERATION void rd(String name, Object... params){
+	@OPERATION(guard="foundMatch") void rd(String name, Object... params){
 		TupleTemplate tt = new TupleTemplate(name,params);
-		await("foundMatch",tt);
 		Tuple t = tset.readMatching(tt);
 		bind(tt,t);
 	}
 
-	@OPERATION void rdp(String name, Object... params){
+	@OPERATION(readOnly=true) void rdp(String name, Object... params){
 		TupleTemplate tt = new TupleTemplate(name,params);
 		if (foundMatch(tt)){
 			Tuple t = tset.readMatching(tt);
@@ -62,4 +61,8 @@ public class TupleSpace extends Artifact {
 	@GUARD boolean foundMatch(TupleTemplate tt){
 		return tset.hasTupleMatching(tt);
 	}
+
+	@GUARD(dependsOn="tuple:$0") boolean foundMatch(String name, Object... params){
+		return tset.hasTupleMatching(new TupleTemplate(name,params));
+	}
 }
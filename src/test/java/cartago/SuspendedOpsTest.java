@@ -0,0 +1,249 @@
+package cartago;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import cartago.events.ActionFailedEvent;
+import cartago.events.ActionSucceededEvent;
+import cartago.events.CartagoActionEvent;
+
+public class SuspendedOpsTest {
+
+	private static final long TIMEOUT = 5000;
+
+	/* time given to an op that must stay suspended */
+	private static final long PAUSE = 200;
+
+	private Workspace wsp;
+	private ICartagoContext ctx;
+	private Results results;
+	private long nextActionId;
+
+	public static class Gate extends Artifact {
+
+		boolean open;
+		List<String> passed = new ArrayList<String>();
+
+		@OPERATION(guard="isOpen") void pass(String id){
+			passed.add(id);
+		}
+
+		@OPERATION void record(String id){
+			passed.add(id);
+		}
+
+		@OPERATION void openSlowly() throws InterruptedException {
+			Thread.sleep(PAUSE);
+			open = true;
+		}
+
+		@OPERATION void getPassed(OpFeedbackParam<String> res){
+			res.set(passed.toString());
+		}
+
+		@GUARD(dependsOn="open") boolean isOpen(String id){
+			return open;
+		}
+	}
+
+	public static class Counters extends Artifact {
+
+		int a;
+		int b;
+		int nevals;
+
+		@OPERATION(guard="aReached") void waitA(int k){}
+
+		@OPERATION void incA(){
+			a++;
+		}
+
+		@OPERATION void incB(){
+			b++;
+		}
+
+		@OPERATION void notifyA(){
+			dependencyChanged("a");
+		}
+
+		@OPERATION void getEvals(OpFeedbackParam<Integer> res){
+			res.set(nevals);
+		}
+
+		@GUARD(dependsOn="a") boolean aReached(int k){
+			nevals++;
+			return a >= k;
+		}
+	}
+
+	@Before
+	public void setUp() throws Exception {
+		wsp = new Workspace(new WorkspaceId("w"));
+		wsp.init();
+		results = new Results();
+		ctx = wsp.joinWorkspace(new AgentIdCredential("ag"), results);
+	}
+
+	@After
+	public void tearDown(){
+		wsp.shutdown();
+	}
+
+	@Test
+	public void inIsSuspendedUntilAMatchingOut() throws Exception {
+		make("ts", "cartago.tools.TupleSpace");
+		OpFeedbackParam<Integer> value = new OpFeedbackParam<Integer>();
+		long in = exec("ts", new Op("in", "t", value));
+		exec("ts", new Op("out", "other", 1));
+		assertPending(in, PAUSE);
+
+		awaitSucceeded(exec("ts", new Op("out", "t", 42)));
+		awaitSucceeded(in);
+		assertEquals(Integer.valueOf(42), value.get());
+	}
+
+	@Test
+	public void suspendedOpsDoNotHoldControllers() throws Exception {
+		make("ts", "cartago.tools.TupleSpace");
+		/* more than the max number of controllers of the workspace */
+		int n = 1500;
+		long[] ins = new long[n];
+		for (int i = 0; i < n; i++){
+			ins[i] = exec("ts", new Op("in", "t", new OpFeedbackParam<Integer>()));
+		}
+		for (int i = 0; i < n; i++){
+			exec("ts", new Op("out", "t", i));
+		}
+		for (long in: ins){
+			awaitSucceeded(in);
+		}
+	}
+
+	@Test
+	public void resumedOpsAreServedBeforeNewOps() throws Exception {
+		make("g", Gate.class.getName());
+		long pass = exec("g", new Op("pass", "a"));
+		assertPending(pass, PAUSE);
+		/* queued while the gate is being opened */
+		exec("g", new Op("openSlowly"));
+		exec("g", new Op("record", "b"));
+		awaitSucceeded(pass);
+
+		OpFeedbackParam<String> passed = new OpFeedbackParam<String>();
+		awaitSucceeded(exec("g", new Op("getPassed", passed)));
+		assertEquals("[a, b]", passed.get());
+	}
+
+	@Test
+	public void suspendedOpsFailWhenTheArtifactIsDisposed() throws Exception {
+		ArtifactId aid = make("ts", "cartago.tools.TupleSpace");
+		long in = exec("ts", new Op("in", "t", new OpFeedbackParam<Integer>()));
+		assertPending(in, PAUSE);
+
+		wsp.disposeArtifact(ctx.getAgentId(), aid);
+		CartagoActionEvent ev = results.await(in, TIMEOUT);
+		assertTrue(ev instanceof ActionFailedEvent);
+		assertEquals("artifact_not_available", ((ActionFailedEvent) ev).getFailureDescr().getLabel());
+	}
+
+	@Test
+	public void guardsAreEvaluatedOnlyWhenTheirDependenciesChange() throws Exception {
+		make("c", Counters.class.getName());
+		long wait = exec("c", new Op("waitA", 3));
+		for (int i = 0; i < 5; i++){
+			exec("c", new Op("incB"));
+		}
+		assertPending(wait, PAUSE);
+		assertEquals(1, evals());
+
+		exec("c", new Op("incA"));
+		exec("c", new Op("notifyA"));
+		assertPending(wait, PAUSE);
+		assertEquals(3, evals());
+
+		exec("c", new Op("incA"));
+		exec("c", new Op("incA"));
+		awaitSucceeded(wait);
+		/* evaluated again when the resumed op is executed */
+		assertEquals(6, evals());
+	}
+
+	@Test
+	public void barrierReleasesTheWaiterWhenAllParticipantsHit() throws Exception {
+		int n = 5;
+		ArtifactId aid = wsp.makeArtifact(ctx.getAgentId(), "b", "cartago.tools.Barrier", new ArtifactConfig(n));
+		long wait = exec("b", new Op("waitForAll"));
+		for (int i = 0; i < n - 1; i++){
+			ICartagoContext participant = wsp.joinWorkspace(new AgentIdCredential("p" + i), results);
+			participant.doAction(++nextActionId, aid.getName(), new Op("hit"), null, -1);
+			awaitSucceeded(nextActionId);
+		}
+		assertPending(wait, PAUSE);
+
+		exec("b", new Op("hit"));
+		awaitSucceeded(wait);
+	}
+
+	private ArtifactId make(String name, String template) throws Exception {
+		return wsp.makeArtifact(ctx.getAgentId(), name, template, ArtifactConfig.DEFAULT_CONFIG);
+	}
+
+	private long exec(String artifact, Op op) throws Exception {
+		long id = ++nextActionId;
+		ctx.doAction(id, artifact, op, null, -1);
+		return id;
+	}
+
+	private int evals() throws Exception {
+		OpFeedbackParam<Integer> res = new OpFeedbackParam<Integer>();
+		awaitSucceeded(exec("c", new Op("getEvals", res)));
+		return res.get();
+	}
+
+	private void awaitSucceeded(long actionId) throws Exception {
+		CartagoActionEvent ev = results.await(actionId, TIMEOUT);
+		assertNotNull("action " + actionId + " not completed", ev);
+		assertTrue("action " + actionId + " failed", ev instanceof ActionSucceededEvent);
+	}
+
+	private void assertPending(long actionId, long time) throws Exception {
+		assertNull("action " + actionId + " completed", results.await(actionId, time));
+	}
+
+	/**
+	 * Completion events of the actions, by action id
+	 */
+	static class Results implements ICartagoCallback {
+
+		private Map<Long, CartagoActionEvent> events = new HashMap<Long, CartagoActionEvent>();
+
+		public synchronized void notifyCartagoEvent(CartagoEvent ev){
+			if (ev instanceof CartagoActionEvent){
+				CartagoActionEvent aev = (CartagoActionEvent) ev;
+				events.put(aev.getActionId(), aev);
+				notifyAll();
+			}
+		}
+
+		synchronized CartagoActionEvent await(long actionId, long timeout) throws InterruptedException {
+			long deadline = System.currentTimeMillis() + timeout;
+			long dt = timeout;
+			while (!events.containsKey(actionId) && dt > 0){
+				wait(dt);
+				dt = deadline - System.currentTimeMillis();
+			}
+			return events.get(actionId);
+		}
+	}
+}
@@ -0,0 +1,222 @@
+package cartago;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TimerWheelTest {
+
+	private static final long MS = 1000000L;
+
+	/* delays in ticks around the boundaries of the first levels (64 and 4096 ticks) */
+	private static final long[] DELAYS = { 1, 2, 63, 64, 65, 100, 127, 128, 4095, 4096, 4097, 5000, 64 * 4096 + 7 };
+
+	private AtomicLong now;
+	private TimerWheel wheel;
+	private List<long[]> expired;
+
+	@Before
+	public void setUp(){
+		now = new AtomicLong(1000 * MS);
+		wheel = new TimerWheel(1, now::get);
+		expired = new ArrayList<long[]>();
+	}
+
+	@After
+	public void tearDown(){
+		wheel.shutdown();
+	}
+
+	@Test
+	public void timersExpireOnTimeAcrossLevels(){
+		scheduleAll(DELAYS);
+		long start = now.get();
+		long last = DELAYS[DELAYS.length - 1];
+		for (long t = 1; t <= last + 1; t++){
+			now.set(start + t * MS);
+			wheel.advance();
+		}
+		checkExpiredAt(DELAYS, false);
+		assertEquals(0, wheel.getNumTimers());
+	}
+
+	@Test
+	public void timersExpireInOrderWhenAdvancingManyTicks(){
+		scheduleAll(DELAYS);
+		long start = now.get();
+		long last = DELAYS[DELAYS.length - 1];
+		for (long t = 997; t < last + 997; t += 997){
+			now.set(start + t * MS);
+			wheel.advance();
+		}
+		checkExpiredAt(DELAYS, true);
+	}
+
+	@Test
+	public void timersDoNotExpireEarly(){
+		long start = now.get();
+		for (long delay: DELAYS){
+			AtomicBoolean ran = new AtomicBoolean();
+			now.set(start);
+			wheel.schedule(() -> ran.set(true), delay);
+			wheel.advance();
+			now.set(start + delay * MS - 1);
+			wheel.advance();
+			assertFalse("expired before " + delay, ran.get());
+			now.set(start + delay * MS);
+			wheel.advance();
+			assertTrue("not expired after " + delay, ran.get());
+			start = now.get();
+		}
+	}
+
+	@Test
+	public void cancelledTimersAreNotExecuted(){
+		AtomicInteger runs = new AtomicInteger();
+		TimerWheel.Timeout pending = wheel.schedule(runs::incrementAndGet, 10);
+		TimerWheel.Timeout low = wheel.schedule(runs::incrementAndGet, 20);
+		TimerWheel.Timeout high = wheel.schedule(runs::incrementAndGet, 5000);
+		wheel.schedule(runs::incrementAndGet, 30);
+		pending.cancel();
+		long start = now.get();
+		wheel.advance();
+		assertEquals(3, wheel.getNumTimers());
+		low.cancel();
+		high.cancel();
+		now.set(start + 6000 * MS);
+		wheel.advance();
+		assertEquals(1, runs.get());
+		assertEquals(0, wheel.getNumTimers());
+	}
+
+	@Test
+	public void delaysBeyondTheTopLevelExpireOnTime(){
+		/* max delta of the wheel: 5 levels of 64 slots */
+		long maxDelta = (1L << 30) - 1;
+		long delay = maxDelta + 3 * 4096 * 4096;
+		AtomicBoolean ran = new AtomicBoolean();
+		long start = now.get();
+		wheel.schedule(() -> ran.set(true), delay);
+		wheel.advance();
+		/* past the first cascades from the top level */
+		now.set(start + 4 * 4096 * 4096 * MS);
+		wheel.advance();
+		assertFalse(ran.get());
+		assertEquals(1, wheel.getNumTimers());
+		now.set(start + delay * MS - 1);
+		wheel.advance();
+		assertFalse(ran.get());
+		now.set(start + delay * MS);
+		wheel.advance();
+		assertTrue(ran.get());
+	}
+
+	@Test
+	public void idleWheelJumpsForward(){
+		assertEquals(-1, wheel.advance());
+		long start = now.get();
+		now.set(start + 1000000000L * MS);
+		assertEquals(-1, wheel.advance());
+		long tick = wheel.getCurrentTick();
+		assertEquals(1000000000L, tick);
+
+		AtomicBoolean ran = new AtomicBoolean();
+		wheel.schedule(() -> ran.set(true), 10);
+		assertEquals(10 * MS, wheel.advance());
+		now.addAndGet(9 * MS);
+		wheel.advance();
+		assertFalse(ran.get());
+		now.addAndGet(MS);
+		assertEquals(-1, wheel.advance());
+		assertTrue(ran.get());
+		assertEquals(tick + 10, wheel.getCurrentTick());
+	}
+
+	@Test
+	public void waitIsBoundedByTheNextLevelBoundary(){
+		wheel.schedule(() -> {}, 100);
+		long wait = wheel.advance();
+		assertTrue(wait > 0 && wait <= 64 * MS);
+		wheel.schedule(() -> {}, 5);
+		assertEquals(5 * MS, wheel.advance());
+	}
+
+	@Test
+	public void parkedWorkerIsWokenUpBySchedule() throws Exception {
+		TimerWheel timers = new TimerWheel("test-timer", 1);
+		try {
+			CountDownLatch first = new CountDownLatch(1);
+			long t0 = System.nanoTime();
+			timers.schedule(first::countDown, 20);
+			assertTrue(first.await(5, TimeUnit.SECONDS));
+			assertTrue(System.nanoTime() - t0 >= 20 * MS);
+
+			/* the worker is parked with no timers */
+			Thread.sleep(50);
+			int nthreads = 4;
+			int ntimers = 500;
+			CountDownLatch all = new CountDownLatch(nthreads * ntimers);
+			Thread[] threads = new Thread[nthreads];
+			for (int i = 0; i < nthreads; i++){
+				threads[i] = new Thread(() -> {
+					for (int j = 0; j < ntimers; j++){
+						timers.schedule(all::countDown, j % 5);
+					}
+				});
+				threads[i].start();
+			}
+			for (Thread th: threads){
+				th.join();
+			}
+			assertTrue(all.await(5, TimeUnit.SECONDS));
+		} finally {
+			timers.shutdown();
+		}
+	}
+
+	private void scheduleAll(long[] delays){
+		long start = now.get();
+		List<Long> shuffled = new ArrayList<Long>();
+		for (long delay: delays){
+			shuffled.add(delay);
+		}
+		Collections.shuffle(shuffled, new Random(42));
+		for (long delay: shuffled){
+			wheel.schedule(() -> expired.add(new long[]{ delay, (now.get() - start) / MS }), delay);
+		}
+		wheel.advance();
+	}
+
+	/* atLeast: expired at the first step not before the delay */
+	private void checkExpiredAt(long[] delays, boolean atLeast){
+		assertEquals(delays.length, expired.size());
+		long[] order = new long[expired.size()];
+		for (int i = 0; i < order.length; i++){
+			long[] e = expired.get(i);
+			order[i] = e[0];
+			if (atLeast){
+				assertTrue("timer " + e[0] + " expired at " + e[1], e[1] >= e[0] && e[1] < e[0] + 997);
+			} else {
+				assertEquals("timer " + e[0], e[0], e[1]);
+			}
+		}
+		long[] sorted = delays.clone();
+		Arrays.sort(sorted);
+		assertTrue(Arrays.toString(order), Arrays.equals(sorted, order));
+	}
+}
@@ -0,0 +1,161 @@
+package cartago.processor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import cartago.Artifact;
+import cartago.ArtifactDispatchTable;
+import cartago.OpDescriptor;
+
+/**
+ * The core is compiled without the processor: here it is compiled again
+ * with it, checking that the tables of the core artifacts are generated, 
+ * loaded and define the same ops as the reflective set up.
+ */
+public class ArtifactDispatchProcessorTest {
+
+	private static final String[] CORE_ARTIFACTS = {
+		"cartago.WorkspaceArtifact",
+		"cartago.AgentBodyArtifact",
+		"cartago.ManRepoArtifact",
+		"cartago.SystemArtifact",
+		"cartago.cs.Counter",
+		"cartago.tools.Barrier",
+		"cartago.tools.Clock",
+		"cartago.tools.CommunicatorArtifact",
+		"cartago.tools.Console",
+		"cartago.tools.GUIArtifact",
+		"cartago.tools.Latch",
+		"cartago.tools.SocketChannel",
+		"cartago.tools.TupleSpace"
+	};
+
+	@ClassRule
+	public static TemporaryFolder out = new TemporaryFolder();
+
+	private static ClassLoader loader;
+
+	@BeforeClass
+	public static void compileCore() throws Exception {
+		List<File> sources = new ArrayList<File>();
+		collectSources(new File("src/main/java"), sources);
+		String classPath = System.getProperty("java.class.path");
+
+		JavaCompiler javac = ToolProvider.getSystemJavaCompiler();
+		DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<JavaFileObject>();
+		try (StandardJavaFileManager files = javac.getStandardFileManager(diagnostics, null, null)) {
+			List<String> options = Arrays.asList(
+					"-d", out.getRoot().getPath(),
+					"-classpath", classPath,
+					"-processorpath", classPath,
+					"-processor", ArtifactDispatchProcessor.class.getName(),
+					"-nowarn");
+			boolean ok = javac.getTask(null, files, diagnostics, options, null, files.getJavaFileObjectsFromFiles(sources)).call();
+			assertTrue(diagnostics.getDiagnostics().toString(), ok);
+		}
+
+		/* the core and the tables in a loader of their own, so that the tables can access the ops */
+		List<URL> urls = new ArrayList<URL>();
+		urls.add(out.getRoot().toURI().toURL());
+		for (String entry: classPath.split(File.pathSeparator)){
+			if (entry.endsWith(".jar")){
+				urls.add(new File(entry).toURI().toURL());
+			}
+		}
+		loader = new URLClassLoader(urls.toArray(new URL[urls.size()]), ClassLoader.getPlatformClassLoader());
+	}
+
+	private static void collectSources(File dir, List<File> sources){
+		for (File f: dir.listFiles()){
+			if (f.isDirectory()){
+				collectSources(f, sources);
+			} else if (f.getName().endsWith(".java")){
+				sources.add(f);
+			}
+		}
+	}
+
+	@Test
+	public void tablesAreGeneratedForTheCoreArtifacts() throws Exception {
+		for (String name: CORE_ARTIFACTS){
+			assertTrue("no table for " + name, new File(out.getRoot(), (name + ArtifactDispatchTable.TABLE_SUFFIX).replace('.', '/') + ".class").exists());
+		}
+	}
+
+	@Test
+	public void tablesLoadAndDefineTheReflectiveOps() throws Exception {
+		Class<?> tableClass = loader.loadClass(ArtifactDispatchTable.class.getName());
+		Method forClass = tableClass.getDeclaredMethod("forClass", Class.class);
+		forClass.setAccessible(true);
+		Class<?> opClass = loader.loadClass(ArtifactDispatchTable.Operation.class.getName());
+
+		for (String name: CORE_ARTIFACTS){
+			Class<?> generated = Class.forName(name, false, loader);
+			assertNotNull("table of " + name + " not loaded", forClass.invoke(null, generated));
+
+			Map<String, OpDescriptor> reflective = operations(Class.forName(name));
+			Map<String, ?> fromTables = operations(generated);
+			assertEquals(name, new TreeSet<String>(reflective.keySet()), new TreeSet<String>(fromTables.keySet()));
+			for (Map.Entry<String, OpDescriptor> e: reflective.entrySet()){
+				Object desc = fromTables.get(e.getKey());
+				String op = name + "." + e.getKey();
+				OpDescriptor expected = e.getValue();
+				Object actualOp = invoke(desc, "getOp");
+				if (declaringClass(expected) != Artifact.class){
+					assertTrue(op + " not from the table", opClass.isInstance(actualOp));
+				}
+				assertEquals(op, expected.getPriority().name(), ((Enum<?>) invoke(desc, "getPriority")).name());
+				assertEquals(op, expected.isReadOnly(), invoke(desc, "isReadOnly"));
+				assertEquals(op, expected.isUI(), invoke(desc, "isUI"));
+				assertEquals(op, expected.isLinkOperation(), invoke(desc, "isLinkOperation"));
+				assertEquals(op, expected.getGuard() != null, invoke(desc, "getGuard") != null);
+			}
+		}
+	}
+
+	/* the ops declared by Artifact itself are always set up by reflection */
+	private static Class<?> declaringClass(OpDescriptor desc) throws Exception {
+		return ((Method) invoke(desc.getOp(), "getMethod")).getDeclaringClass();
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T> Map<String, T> operations(Class<?> artifactClass) throws Exception {
+		Class<?> infoClass = Class.forName("cartago.ArtifactClassInfo", true, artifactClass.getClassLoader());
+		Object info = invokeStatic(infoClass, "forClass", artifactClass);
+		return (Map<String, T>) invoke(info, "getOperations");
+	}
+
+	private static Object invokeStatic(Class<?> c, String name, Class<?> arg) throws Exception {
+		Method m = c.getDeclaredMethod(name, Class.class);
+		m.setAccessible(true);
+		return m.invoke(null, arg);
+	}
+
+	private static Object invoke(Object target, String name) throws Exception {
+		Method m = target.getClass().getDeclaredMethod(name);
+		m.setAccessible(true);
+		return m.invoke(target);
+	}
+}
@@ -0,0 +1,100 @@
+package cartago.standalone;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import cartago.AgentId;
+import cartago.ArtifactId;
+import cartago.ArtifactObsProperty;
+import cartago.WorkspaceId;
+import cartago.events.ArtifactObsEvent;
+
+public class ConflatingPerceptQueueTest {
+
+	private static final ArtifactObsProperty[] NONE = new ArtifactObsProperty[0];
+
+	private ConflatingPerceptQueue queue;
+	private ArtifactId aid;
+	private long evId;
+
+	@Before
+	public void setUp(){
+		WorkspaceId wid = new WorkspaceId("w");
+		aid = new ArtifactId("c", "T", wid, new AgentId("ag", "ag", 0, "r", wid));
+		queue = new ConflatingPerceptQueue();
+		queue.setConflation(aid, "p");
+	}
+
+	@Test
+	public void changesAreConflated(){
+		changed(prop(1, 1));
+		changed(prop(1, 2));
+		changed(prop(1, 3));
+
+		ArtifactObsEvent ev = next();
+		assertEquals(1, ev.getChangedProperties().length);
+		assertEquals(3, ev.getChangedProperties()[0].getValue());
+		assertNull(queue.poll());
+	}
+
+	@Test
+	public void changesAfterRemoveAndAddAreNotReordered(){
+		changed(prop(1, 1));
+		removed(prop(1, 1));
+		added(prop(2, 0));
+		changed(prop(2, 99));
+
+		ArtifactObsEvent ev = next();
+		assertEquals(1, ev.getRemovedProperties().length);
+		assertEquals(1, ev.getRemovedProperties()[0].getId());
+		assertEquals(0, ev.getChangedProperties().length);
+
+		ev = next();
+		assertEquals(1, ev.getAddedProperties().length);
+		assertEquals(0, ev.getAddedProperties()[0].getValue());
+
+		ev = next();
+		assertEquals(1, ev.getChangedProperties().length);
+		assertEquals(2, ev.getChangedProperties()[0].getId());
+		assertEquals(99, ev.getChangedProperties()[0].getValue());
+		assertNull(queue.poll());
+	}
+
+	@Test
+	public void changesBeforeAnAddAreDeliveredBeforeIt(){
+		changed(prop(1, 1));
+		added(prop(2, 0));
+		changed(prop(1, 2));
+
+		ArtifactObsEvent ev = next();
+		assertEquals(1, ev.getChangedProperties()[0].getValue());
+		ev = next();
+		assertEquals(1, ev.getAddedProperties().length);
+		ev = next();
+		assertEquals(2, ev.getChangedProperties()[0].getValue());
+		assertNull(queue.poll());
+	}
+
+	private ArtifactObsProperty prop(long id, Object value){
+		return new ArtifactObsProperty("p_" + id, id, "p", value);
+	}
+
+	private void changed(ArtifactObsProperty p){
+		queue.add(new ArtifactObsEvent(evId++, aid, null, new ArtifactObsProperty[]{ p }, NONE, NONE));
+	}
+
+	private void added(ArtifactObsProperty p){
+		queue.add(new ArtifactObsEvent(evId++, aid, null, NONE, new ArtifactObsProperty[]{ p }, NONE));
+	}
+
+	private void removed(ArtifactObsProperty p){
+		queue.add(new ArtifactObsEvent(evId++, aid, null, NONE, NONE, new ArtifactObsProperty[]{ p }));
+	}
+
+	private ArtifactObsEvent next(){
+		return (ArtifactObsEvent) queue.poll();
+	}
+}